@@ -5,6 +5,7 @@ module org.example.paintbrushfx {
     requires org.kordamp.ikonli.javafx;
     requires org.kordamp.ikonli.materialdesign2;
     requires java.desktop;
+    requires jdk.management;
 
     exports org.example.paintbrushfx;
 }
\ No newline at end of file
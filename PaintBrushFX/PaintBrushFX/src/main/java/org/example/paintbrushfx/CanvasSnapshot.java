@@ -0,0 +1,101 @@
+package org.example.paintbrushfx;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An undo/redo history entry. The canvas raster is kept as an image and can be compressed into deflated
+ * BGRA bytes when memory runs short; it is inflated again the next time it is restored. A blank entry stands
+ * for the white canvas a session starts with and holds no pixels at all.
+ */
+class CanvasSnapshot {
+    private WritableImage image;
+    private byte[] compressed;
+    private final int width;
+    private final int height;
+
+    CanvasSnapshot(WritableImage image) {
+        this.image = image;
+        this.width = (int) image.getWidth();
+        this.height = (int) image.getHeight();
+    }
+
+    private CanvasSnapshot() {
+        this.width = 0;
+        this.height = 0;
+    }
+
+    static CanvasSnapshot blank() {
+        return new CanvasSnapshot();
+    }
+
+    /**
+     * Returns the raster of this entry, or {@code null} for a blank entry.
+     */
+    WritableImage image() {
+        if (image == null && compressed != null) {
+            image = inflate();
+            compressed = null;
+        }
+        return image;
+    }
+
+    boolean isCompressed() {
+        return compressed != null;
+    }
+
+    /**
+     * Estimated heap bytes held by this entry.
+     */
+    long estimatedBytes() {
+        return compressed != null ? compressed.length : (long) width * height * 4;
+    }
+
+    /**
+     * Compresses the raster, returning whether there was anything left to compress.
+     */
+    boolean compress() {
+        if (image == null) {
+            return false;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(width * height * 4);
+        image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getByteBgraInstance(), bytes, width * 4);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(bytes.array());
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[64 * 1024];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        compressed = out.toByteArray();
+        image = null;
+        return true;
+    }
+
+    private WritableImage inflate() {
+        byte[] bytes = new byte[width * height * 4];
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        try {
+            int offset = 0;
+            while (offset < bytes.length && !inflater.finished()) {
+                offset += inflater.inflate(bytes, offset, bytes.length - offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt history snapshot", e);
+        } finally {
+            inflater.end();
+        }
+        WritableImage restored = new WritableImage(width, height);
+        restored.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getByteBgraInstance(), bytes, 0, width * 4);
+        return restored;
+    }
+}
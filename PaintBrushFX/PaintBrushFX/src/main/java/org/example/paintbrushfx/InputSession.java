@@ -0,0 +1,338 @@
+package org.example.paintbrushfx;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.event.Event;
+import javafx.event.EventType;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Records drawing sessions as timestamped mouse and key event streams and replays them against a running
+ * {@link PaintBrush}, reporting per-event latency percentiles, allocation rate and peak heap.
+ * <p>
+ * Run with {@code -Dpaintbrush.record=<file>} to record a session (written when the window closes) and with
+ * {@code -Dpaintbrush.replay=<file>} to replay one. A replay exits with status 1 when one of the optional
+ * limits {@code paintbrush.replay.maxP99Millis}, {@code paintbrush.replay.maxAllocMBps},
+ * {@code paintbrush.replay.maxPeakHeapMB} or {@code paintbrush.replay.maxDragAllocBytes} is exceeded, so it can
+ * gate a build; the tests replay the sessions under {@code src/test/resources/sessions} against the same limits.
+ * Every event is dispatched to the canvas and timed the same way. The bytes each event allocates on the FX
+ * thread are read before and after the timed dispatch, so the probe does not show up in the latencies;
+ * {@code maxDragAllocBytes} limits their mean over the steady-state drags, i.e. every drag but the first two of
+ * a stroke (which rebuild the shape layer). With Monocle on the class path
+ * ({@code -Dglass.platform=Monocle -Dmonocle.platform=Headless -Dprism.order=sw}) it runs headless.
+ * <p>
+ * Each line of a recording is {@code <nanos since start> <event type> <scene x> <scene y> <button or key> <ctrl>}.
+ * Besides the mouse and key events, the toolbar is recorded as tool state changes ({@code TOOL <name>},
+ * {@code COLOR <color>}, {@code WIDTH <line width>}, {@code FILLED <boolean>}) and the Undo, Redo, Clear and New
+ * buttons as {@code UNDO}, {@code REDO} and {@code CLEAR}; these lines carry zero coordinates and no Ctrl. A replay
+ * applies them to the {@link PaintBrush} directly, so it needs no toolbar.
+ */
+class InputSession {
+    static final String RECORD_PROPERTY = "paintbrush.record";
+    static final String REPLAY_PROPERTY = "paintbrush.replay";
+    static final String TOOL = "TOOL";
+    static final String COLOR = "COLOR";
+    static final String WIDTH = "WIDTH";
+    static final String FILLED = "FILLED";
+    static final String UNDO = "UNDO";
+    static final String REDO = "REDO";
+    static final String CLEAR = "CLEAR";
+
+    private final List<String> lines = new ArrayList<>();
+    private long startTime = -1;
+
+    private InputSession() {
+    }
+
+    /**
+     * Starts recording the canvas mouse events and the scene key events if a record file was requested, returning
+     * the session the tool state changes are added to, or {@code null}.
+     */
+    static InputSession recordIfRequested(Stage stage, Scene scene, Canvas canvas) {
+        String file = System.getProperty(RECORD_PROPERTY);
+        if (file == null) {
+            return null;
+        }
+        InputSession session = new InputSession();
+        canvas.addEventFilter(MouseEvent.ANY, e -> {
+            EventType<? extends MouseEvent> type = e.getEventType();
+            if (type == MouseEvent.MOUSE_PRESSED || type == MouseEvent.MOUSE_DRAGGED || type == MouseEvent.MOUSE_RELEASED) {
+                session.add(type.getName(), e.getSceneX(), e.getSceneY(), e.getButton().name(), e.isControlDown());
+            }
+        });
+        scene.addEventFilter(KeyEvent.KEY_PRESSED, e ->
+                session.add(KeyEvent.KEY_PRESSED.getName(), 0, 0, e.getCode().name(), e.isControlDown()));
+        stage.setOnHidden(e -> {
+            try {
+                Files.write(Path.of(file), session.lines);
+                System.out.println("[session] recorded " + session.lines.size() + " events to " + file);
+            } catch (IOException ex) {
+                System.err.println("[session] failed to write " + file + ": " + ex.getMessage());
+            }
+        });
+        return session;
+    }
+
+    /**
+     * Replays the requested recording on the FX thread, keeping the recorded timing, and reports once the
+     * last event has been handled.
+     */
+    static void replayIfRequested(PaintBrush app, Canvas canvas) {
+        String file = System.getProperty(REPLAY_PROPERTY);
+        if (file == null) {
+            return;
+        }
+        List<String> events;
+        try {
+            events = Files.readAllLines(Path.of(file));
+        } catch (IOException e) {
+            System.err.println("[session] failed to read " + file + ": " + e.getMessage());
+            Platform.exit();
+            return;
+        }
+        replay(app, canvas, events).thenAccept(report -> {
+            report.print();
+            List<String> regressions = report.regressions();
+            regressions.forEach(regression -> System.out.println("[session] regression: " + regression));
+            Platform.exit();
+            if (!regressions.isEmpty()) {
+                System.exit(1);
+            }
+        });
+    }
+
+    /**
+     * Replays a recording on the FX thread, keeping the recorded timing. Must be called on the FX thread; the
+     * returned future completes there once the last event has been handled.
+     */
+    static CompletableFuture<Report> replay(PaintBrush app, Canvas canvas, List<String> events) {
+        Replay replay = new Replay(app, canvas, events);
+        replay.start();
+        return replay.done;
+    }
+
+    void add(String type, double x, double y, String detail, boolean controlDown) {
+        long now = System.nanoTime();
+        if (startTime < 0) {
+            startTime = now;
+        }
+        lines.add((now - startTime) + " " + type + " " + x + " " + y + " " + detail + " " + controlDown);
+    }
+
+    /**
+     * The measurements of one replay.
+     */
+    static class Report {
+        final int events;
+        final double seconds;
+        final double p50Millis, p90Millis, p99Millis, maxMillis;
+        final long allocatedBytes;
+        final double allocMBps;
+        final double peakHeapMB;
+        final int steadyDrags;
+        final double meanDragBytes;
+        final long maxDragBytes;
+
+        private Report(long[] latencies, long elapsed, long allocatedBytes, long peakHeap,
+                       long[] dragAllocations, int steadyDrags) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            this.events = sorted.length;
+            this.seconds = Math.max(elapsed / 1e9, 1e-9);
+            this.p50Millis = percentile(sorted, 0.50);
+            this.p90Millis = percentile(sorted, 0.90);
+            this.p99Millis = percentile(sorted, 0.99);
+            this.maxMillis = sorted.length > 0 ? sorted[sorted.length - 1] / 1e6 : 0;
+            this.allocatedBytes = allocatedBytes;
+            this.allocMBps = allocatedBytes / 1048576.0 / seconds;
+            this.peakHeapMB = peakHeap / 1048576.0;
+            this.steadyDrags = steadyDrags;
+            long dragBytes = 0;
+            long maxDragBytes = 0;
+            for (int i = 0; i < steadyDrags; i++) {
+                dragBytes += dragAllocations[i];
+                maxDragBytes = Math.max(maxDragBytes, dragAllocations[i]);
+            }
+            this.meanDragBytes = steadyDrags > 0 ? (double) dragBytes / steadyDrags : 0;
+            this.maxDragBytes = maxDragBytes;
+        }
+
+        void print() {
+            System.out.printf("[session] %d events in %.2f s%n", events, seconds);
+            System.out.printf("[session] latency p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                    p50Millis, p90Millis, p99Millis, maxMillis);
+            System.out.printf("[session] allocation %.2f MB/s (%d bytes on the FX thread), peak heap %.1f MB%n",
+                    allocMBps, allocatedBytes, peakHeapMB);
+            System.out.printf("[session] drag allocation %.1f bytes/event mean, %d max over %d steady-state drags%n",
+                    meanDragBytes, maxDragBytes, steadyDrags);
+        }
+
+        /**
+         * Returns a description of every configured {@code paintbrush.replay.*} limit this replay exceeds.
+         */
+        List<String> regressions() {
+            List<String> regressions = new ArrayList<>();
+            check(regressions, "maxP99Millis", p99Millis);
+            check(regressions, "maxAllocMBps", allocMBps);
+            check(regressions, "maxPeakHeapMB", peakHeapMB);
+            check(regressions, "maxDragAllocBytes", meanDragBytes);
+            return regressions;
+        }
+
+        private static void check(List<String> regressions, String limit, double value) {
+            String max = System.getProperty("paintbrush.replay." + limit);
+            if (max != null && value > Double.parseDouble(max)) {
+                regressions.add(String.format("%.3f exceeds %s=%s", value, limit, max));
+            }
+        }
+
+        private static double percentile(long[] sorted, double fraction) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+    }
+
+    private static class Replay extends AnimationTimer {
+        // The first drag of a stroke replays the shapes and the second captures them as the shape layer
+        private static final int STROKE_WARMUP_DRAGS = 2;
+
+        private final PaintBrush app;
+        private final Canvas canvas;
+        private final List<String> events;
+        private final CompletableFuture<Report> done = new CompletableFuture<>();
+        private final long[] latencies;
+        private final long[] dragAllocations;
+        private int dragCount = 0;
+        private int strokeDrags = 0;
+        private final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private int next = 0;
+        private long startTime = -1;
+        private long startAllocated;
+
+        Replay(PaintBrush app, Canvas canvas, List<String> events) {
+            this.app = app;
+            this.canvas = canvas;
+            this.events = events;
+            this.latencies = new long[events.size()];
+            this.dragAllocations = new long[events.size()];
+        }
+
+        @Override
+        public void handle(long now) {
+            if (startTime < 0) {
+                startTime = now;
+                ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+                startAllocated = threads.getCurrentThreadAllocatedBytes();
+            }
+            while (next < events.size() && timestamp(events.get(next)) <= now - startTime) {
+                String[] fields = events.get(next).split(" ");
+                Runnable action = toAction(fields);
+                long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+                long begin = System.nanoTime();
+                action.run();
+                long end = System.nanoTime();
+                long allocatedBytes = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                latencies[next] = end - begin;
+                if (fields[1].equals(MouseEvent.MOUSE_DRAGGED.getName())) {
+                    if (++strokeDrags > STROKE_WARMUP_DRAGS) {
+                        dragAllocations[dragCount++] = allocatedBytes;
+                    }
+                } else if (fields[1].equals(MouseEvent.MOUSE_PRESSED.getName())) {
+                    strokeDrags = 0;
+                }
+                next++;
+            }
+            if (next == events.size()) {
+                stop();
+                done.complete(new Report(latencies, System.nanoTime() - startTime,
+                        threads.getCurrentThreadAllocatedBytes() - startAllocated, peakHeap(),
+                        dragAllocations, dragCount));
+            }
+        }
+
+        private long peakHeap() {
+            long peakHeap = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                    peakHeap += pool.getPeakUsage().getUsed();
+                }
+            }
+            return peakHeap;
+        }
+
+        private long timestamp(String line) {
+            return Long.parseLong(line.substring(0, line.indexOf(' ')));
+        }
+
+        /**
+         * Turns a recorded line into what replays it: tool state is set on the app, input events are dispatched to
+         * the canvas (key events bubble up to the scene's key handler).
+         */
+        private Runnable toAction(String[] fields) {
+            String detail = fields[4];
+            switch (fields[1]) {
+                case TOOL:
+                    return () -> app.selectTool(detail);
+                case COLOR:
+                    Color color = Color.web(detail);
+                    return () -> app.setColor(color);
+                case WIDTH:
+                    double lineWidth = Double.parseDouble(detail);
+                    return () -> app.setLineWidth(lineWidth);
+                case FILLED:
+                    boolean filled = Boolean.parseBoolean(detail);
+                    return () -> app.setFilled(filled);
+                case UNDO:
+                    return app::undo;
+                case REDO:
+                    return app::redo;
+                case CLEAR:
+                    return app::clearCanvas;
+                default:
+                    Event event = toEvent(fields);
+                    return () -> Event.fireEvent(canvas, event);
+            }
+        }
+
+        private Event toEvent(String[] fields) {
+            String type = fields[1];
+            double x = Double.parseDouble(fields[2]);
+            double y = Double.parseDouble(fields[3]);
+            boolean controlDown = Boolean.parseBoolean(fields[5]);
+            if (type.equals(KeyEvent.KEY_PRESSED.getName())) {
+                return new KeyEvent(KeyEvent.KEY_PRESSED, KeyEvent.CHAR_UNDEFINED, "", KeyCode.valueOf(fields[4]),
+                        false, controlDown, false, false);
+            }
+            EventType<MouseEvent> mouseType = type.equals(MouseEvent.MOUSE_PRESSED.getName()) ? MouseEvent.MOUSE_PRESSED
+                    : type.equals(MouseEvent.MOUSE_RELEASED.getName()) ? MouseEvent.MOUSE_RELEASED
+                    : MouseEvent.MOUSE_DRAGGED;
+            MouseButton button = MouseButton.valueOf(fields[4]);
+            boolean primaryDown = mouseType != MouseEvent.MOUSE_RELEASED && button == MouseButton.PRIMARY;
+            return new MouseEvent(mouseType, x, y, x, y, button, 1,
+                    false, controlDown, false, false, primaryDown, false, false,
+                    true, false, false, null);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.example.paintbrushfx;
+
+import java.util.List;
+
+/**
+ * Keeps track of the memory held by the shapes and the undo/redo history of a {@link PaintBrush} and degrades
+ * gracefully once a budget is exceeded: first the history snapshots are compressed, then the oldest history
+ * is evicted, and finally freehand strokes are simplified to a coarser level of detail.
+ * <p>
+ * The budget is set with {@code -Dpaintbrush.memoryBudgetMB=<megabytes>} and defaults to half the maximum
+ * heap. Every action taken is logged.
+ */
+class MemoryGovernor {
+    private static final long SHAPE_OVERHEAD = 160; // Object header, fields and the type/color references
+    private static final long ARRAY_OVERHEAD = 16;
+    // Strokes are recorded with points over 2 px apart, so level 1 (2 px spacing) would not drop any of them
+    private static final int MIN_SIMPLIFY_LEVEL = 2;
+    private static final int MAX_SIMPLIFY_LEVEL = 3; // Keeps simplified strokes within a few pixels of the original
+
+    private final List<PaintBrush.Shape> shapes;
+    private final List<CanvasSnapshot> undoStack;
+    private final List<CanvasSnapshot> redoStack;
+    private final Runnable shapesChanged;
+    private final long budget;
+    private long shapesBytes;
+    private long historyBytes;
+
+    MemoryGovernor(List<PaintBrush.Shape> shapes, List<CanvasSnapshot> undoStack, List<CanvasSnapshot> redoStack,
+                   Runnable shapesChanged) {
+        this(shapes, undoStack, redoStack, shapesChanged, configuredBudget());
+    }
+
+    MemoryGovernor(List<PaintBrush.Shape> shapes, List<CanvasSnapshot> undoStack, List<CanvasSnapshot> redoStack,
+                   Runnable shapesChanged, long budget) {
+        this.shapes = shapes;
+        this.undoStack = undoStack;
+        this.redoStack = redoStack;
+        this.shapesChanged = shapesChanged;
+        this.budget = budget;
+    }
+
+    private static long configuredBudget() {
+        String budgetMB = System.getProperty("paintbrush.memoryBudgetMB");
+        return budgetMB != null ? Long.parseLong(budgetMB) * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    long budget() {
+        return budget;
+    }
+
+    long shapesBytes() {
+        return shapesBytes;
+    }
+
+    long historyBytes() {
+        return historyBytes;
+    }
+
+    long totalBytes() {
+        return shapesBytes + historyBytes;
+    }
+
+    /**
+     * Re-estimates the bytes held by the shapes and the history.
+     */
+    void measure() {
+        shapesBytes = 0;
+        for (PaintBrush.Shape shape : shapes) {
+            shapesBytes += estimateBytes(shape);
+        }
+        historyBytes = 0;
+        for (CanvasSnapshot snapshot : undoStack) {
+            historyBytes += snapshot.estimatedBytes();
+        }
+        for (CanvasSnapshot snapshot : redoStack) {
+            historyBytes += snapshot.estimatedBytes();
+        }
+    }
+
+    /**
+     * Brings the estimated usage back under the budget, taking the least destructive action first.
+     */
+    void enforce() {
+        measure();
+        if (totalBytes() <= budget) {
+            return;
+        }
+        log("over budget");
+        compressHistory();
+        if (totalBytes() > budget) {
+            evictHistory();
+        }
+        for (int level = MIN_SIMPLIFY_LEVEL; level <= MAX_SIMPLIFY_LEVEL && totalBytes() > budget; level++) {
+            simplifyStrokes(level);
+        }
+        if (totalBytes() > budget) {
+            log("still over budget after all actions");
+        }
+    }
+
+    private void compressHistory() {
+        int compressed = 0;
+        // Oldest first; the top of the undo stack is what the canvas shows and stays uncompressed
+        for (int i = 0; i < undoStack.size() - 1 && totalBytes() > budget; i++) {
+            compressed += compress(undoStack.get(i));
+        }
+        for (int i = 0; i < redoStack.size() && totalBytes() > budget; i++) {
+            compressed += compress(redoStack.get(i));
+        }
+        if (compressed > 0) {
+            log("compressed " + compressed + " history snapshots");
+        }
+    }
+
+    private int compress(CanvasSnapshot snapshot) {
+        long before = snapshot.estimatedBytes();
+        if (!snapshot.compress()) {
+            return 0;
+        }
+        historyBytes -= before - snapshot.estimatedBytes();
+        return 1;
+    }
+
+    private void evictHistory() {
+        int evicted = 0;
+        // The furthest redo states go first, then the oldest undo states above the blank base entry, never the
+        // current one, so that undoing past what was evicted still ends on the blank canvas
+        while (!redoStack.isEmpty() && totalBytes() > budget) {
+            historyBytes -= redoStack.remove(0).estimatedBytes();
+            evicted++;
+        }
+        while (undoStack.size() > 2 && totalBytes() > budget) {
+            historyBytes -= undoStack.remove(1).estimatedBytes();
+            evicted++;
+        }
+        if (evicted > 0) {
+            log("evicted " + evicted + " history snapshots");
+        }
+    }
+
+    private void simplifyStrokes(int level) {
+        int simplified = 0;
+        for (PaintBrush.Shape shape : shapes) {
+            if (totalBytes() <= budget) {
+                break;
+            }
+            if (shape.freehandXPoints != null) {
+                long before = estimateBytes(shape);
+                if (shape.simplify(level)) {
+                    shapesBytes -= before - estimateBytes(shape);
+                    simplified++;
+                }
+            }
+        }
+        if (simplified > 0) {
+            shapesChanged.run();
+            log("simplified " + simplified + " strokes to level " + level);
+        }
+    }
+
+    private long estimateBytes(PaintBrush.Shape shape) {
+        long bytes = SHAPE_OVERHEAD;
+        if (shape.xPoints != null) {
+            bytes += 2 * (ARRAY_OVERHEAD + 8L * shape.xPoints.length);
+        }
+        if (shape.freehandXPoints != null) {
+            bytes += 2 * (ARRAY_OVERHEAD + 8L * shape.freehandXPoints.length);
+        }
+        if (shape.lodXPoints != null) {
+            for (int level = 1; level < shape.lodXPoints.length; level++) {
+                // Levels that dropped nothing share the finer level's arrays
+                if (shape.lodXPoints[level] != shape.lodXPoints[level - 1]) {
+                    bytes += 2 * (ARRAY_OVERHEAD + 8L * shape.lodXPoints[level].length);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private void log(String action) {
+        System.out.printf("[memory] %s (shapes %d KB, history %d KB, budget %d KB)%n",
+                action, shapesBytes / 1024, historyBytes / 1024, budget / 1024);
+    }
+}
@@ -4,8 +4,10 @@ import com.jfoenix.controls.JFXButton;
 import com.jfoenix.controls.JFXCheckBox;
 import com.jfoenix.controls.JFXSlider;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
@@ -16,14 +18,18 @@ import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+import javafx.scene.transform.Transform;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.stage.Window;
 import org.kordamp.ikonli.javafx.FontIcon;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Stack;
 
@@ -38,18 +44,38 @@ public class PaintBrush extends Application {
     private Color currentColor = Color.BLACK;
     private double startX, startY;
     private boolean isFilled = false;
-    private Stack<WritableImage> undoStack = new Stack<>();
-    private Stack<WritableImage> redoStack = new Stack<>();
+    private Stack<CanvasSnapshot> undoStack = new Stack<>();
+    private Stack<CanvasSnapshot> redoStack = new Stack<>();
     private WritableImage currentSnapshot;
     private List<Shape> shapes = new ArrayList<>();
-    private List<Double> currentFreehandXPoints = new ArrayList<>();
-    private List<Double> currentFreehandYPoints = new ArrayList<>();
+    private WritableImage shapeLayer; // Cached raster of the committed shapes
+    private double shapeLayerWidth, shapeLayerHeight, shapeLayerScaleX, shapeLayerScaleY;
+    private boolean shapeLayerValid = false;
+    private boolean shapesReplayed = false; // Replayed once since the last change, not captured yet
+    // Pointer hot path state, reused across events so that dragging does not allocate
+    private double[] currentFreehandXPoints = new double[4096];
+    private double[] currentFreehandYPoints = new double[4096];
+    private int currentFreehandCount = 0;
+    private double clampedX, clampedY;
+    private final Shape previewShape = new Shape("Line", 0, 0, 0, 0, false, Color.BLACK,
+            new double[3], new double[3], 0, 0, 0, 0, null, null, 0);
+    private final double[] triangleXPoints = new double[3];
+    private final double[] triangleYPoints = new double[3];
     private static final boolean DEBUG = false; // Debug mode
+    private static final boolean TRACE_STARTUP = Boolean.getBoolean("paintbrush.traceStartup"); // Startup tracing mode
+    private static final long LAUNCH_TIME = System.nanoTime();
+    private long phaseStartTime = LAUNCH_TIME;
+    private boolean firstFrameShown = false;
+    private final List<Runnable> deferredSetup = new ArrayList<>(); // Non-critical UI built after the first frame
+    private SharedCanvas sharedCanvas; // Set while hosting or joining a shared canvas
+    private InputSession recording; // Set while recording a session
+    private final MemoryGovernor memoryGovernor = new MemoryGovernor(shapes, undoStack, redoStack, this::invalidateShapeLayer);
 
     /**
      * Inner class representing a shape with properties like type, coordinates, color, and fill status.
      */
-    private static class Shape {
+    static class Shape {
+        long id; // Identifies the shape on a shared canvas, 0 until it is shared
         String type;
         double x, y, width, height;
         boolean filled;
@@ -57,13 +83,18 @@ public class PaintBrush extends Application {
         double[] xPoints;
         double[] yPoints;
         double lineStartX, lineStartY, lineEndX, lineEndY;
-        List<Double> freehandXPoints;
-        List<Double> freehandYPoints;
+        double[] freehandXPoints;
+        double[] freehandYPoints;
+        double[][] lodXPoints; // Decimated freehand points per level of detail, built on first use
+        double[][] lodYPoints;
+        int simplifiedLevel = 0; // Coarsest level the points have been simplified to
         double lineWidth;
 
+        private static final int MAX_LOD_LEVEL = 6;
+
         Shape(String type, double x, double y, double width, double height, boolean filled, Color color,
               double[] xPoints, double[] yPoints, double lineStartX, double lineStartY, double lineEndX, double lineEndY,
-              List<Double> freehandXPoints, List<Double> freehandYPoints, double lineWidth) {
+              double[] freehandXPoints, double[] freehandYPoints, double lineWidth) {
             this.type = type;
             this.x = x;
             this.y = y;
@@ -77,11 +108,42 @@ public class PaintBrush extends Application {
             this.lineStartY = lineStartY;
             this.lineEndX = lineEndX;
             this.lineEndY = lineEndY;
-            this.freehandXPoints = freehandXPoints != null ? new ArrayList<>(freehandXPoints) : null;
-            this.freehandYPoints = freehandYPoints != null ? new ArrayList<>(freehandYPoints) : null;
+            this.freehandXPoints = freehandXPoints; // Handed over by the caller, not copied
+            this.freehandYPoints = freehandYPoints;
             this.lineWidth = lineWidth;
         }
 
+        /**
+         * Reshapes this instance in place; used for the drag preview so that it is not reallocated per event.
+         */
+        Shape set(String type, double x, double y, double width, double height, boolean filled, Color color,
+                  double[] xPoints, double[] yPoints, double lineStartX, double lineStartY, double lineEndX, double lineEndY,
+                  double lineWidth) {
+            this.type = type;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.filled = filled;
+            this.color = color;
+            if (xPoints != null) {
+                System.arraycopy(xPoints, 0, this.xPoints, 0, xPoints.length);
+                System.arraycopy(yPoints, 0, this.yPoints, 0, yPoints.length);
+            }
+            this.lineStartX = lineStartX;
+            this.lineStartY = lineStartY;
+            this.lineEndX = lineEndX;
+            this.lineEndY = lineEndY;
+            this.lineWidth = lineWidth;
+            return this;
+        }
+
+        Shape copy() {
+            boolean triangle = type.equals("Triangle");
+            return new Shape(type, x, y, width, height, filled, color, triangle ? xPoints : null, triangle ? yPoints : null,
+                    lineStartX, lineStartY, lineEndX, lineEndY, null, null, lineWidth);
+        }
+
         boolean contains(double px, double py) {
             if (type.equals("Line") || type.equals("FreeHand") || type.equals("Eraser")) {
                 return false;
@@ -111,20 +173,110 @@ public class PaintBrush extends Application {
             }
             return false;
         }
+
+        /**
+         * Picks the level of detail for drawing this stroke at the given device scale. Level n keeps only
+         * points at least 2^n units apart, so the coarsest level whose spacing stays within one device
+         * pixel is chosen; level 0 is the full stroke.
+         */
+        int lodLevel(double scale) {
+            int level = 0;
+            while (level < MAX_LOD_LEVEL && Math.pow(2, level + 1) * scale <= 1) {
+                level++;
+            }
+            return level;
+        }
+
+        double[] lodXPoints(int level) {
+            if (level == 0) {
+                return freehandXPoints;
+            }
+            buildLevels();
+            return lodXPoints[level];
+        }
+
+        double[] lodYPoints(int level) {
+            if (level == 0) {
+                return freehandYPoints;
+            }
+            buildLevels();
+            return lodYPoints[level];
+        }
+
+        /**
+         * Replaces the stored points with the given coarser level, dropping the finer ones for good. Only that
+         * level is decimated; the cached levels are dropped as well. Returns whether any point was dropped.
+         */
+        boolean simplify(int level) {
+            if (level <= simplifiedLevel) {
+                return false;
+            }
+            simplifiedLevel = level;
+            double[][] kept = decimate(freehandXPoints, freehandYPoints, Math.pow(2, level));
+            if (kept == null) {
+                return false;
+            }
+            freehandXPoints = kept[0];
+            freehandYPoints = kept[1];
+            lodXPoints = null;
+            lodYPoints = null;
+            return true;
+        }
+
+        private void buildLevels() {
+            if (lodXPoints != null) {
+                return;
+            }
+            lodXPoints = new double[MAX_LOD_LEVEL + 1][];
+            lodYPoints = new double[MAX_LOD_LEVEL + 1][];
+            lodXPoints[0] = freehandXPoints;
+            lodYPoints[0] = freehandYPoints;
+            for (int level = 1; level <= MAX_LOD_LEVEL; level++) {
+                double[][] kept = decimate(lodXPoints[level - 1], lodYPoints[level - 1], Math.pow(2, level));
+                // Levels that drop nothing share the finer level instead of keeping a copy
+                lodXPoints[level] = kept != null ? kept[0] : lodXPoints[level - 1];
+                lodYPoints[level] = kept != null ? kept[1] : lodYPoints[level - 1];
+            }
+        }
+
+        /**
+         * Keeps the ends and every point at least {@code spacing} away from the last kept one, or returns
+         * {@code null} when that keeps every point.
+         */
+        private static double[][] decimate(double[] xs, double[] ys, double spacing) {
+            int count = keep(xs, ys, spacing, null, null);
+            if (count == xs.length) {
+                return null;
+            }
+            double[] keptX = new double[count];
+            double[] keptY = new double[count];
+            keep(xs, ys, spacing, keptX, keptY);
+            return new double[][] {keptX, keptY};
+        }
+
+        private static int keep(double[] xs, double[] ys, double spacing, double[] keptX, double[] keptY) {
+            int count = 0;
+            double lastX = 0, lastY = 0;
+            for (int i = 0; i < xs.length; i++) {
+                boolean last = i == xs.length - 1;
+                if (count == 0 || last || Math.hypot(xs[i] - lastX, ys[i] - lastY) >= spacing) {
+                    lastX = xs[i];
+                    lastY = ys[i];
+                    if (keptX != null) {
+                        keptX[count] = lastX;
+                        keptY[count] = lastY;
+                    }
+                    count++;
+                }
+            }
+            return count;
+        }
     }
 
     @Override
     public void start(Stage primaryStage) {
-        canvas = new Canvas(900, 600);
-        gc = canvas.getGraphicsContext2D();
-        gc.setFill(Color.WHITE);
-        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        gc.setStroke(currentColor);
-        gc.setLineWidth(2);
-        saveCanvas();
-
-        canvas.widthProperty().addListener((obs, oldVal, newVal) -> resizeCanvas());
-        canvas.heightProperty().addListener((obs, oldVal, newVal) -> resizeCanvas());
+        tracePhase("launch");
+        createCanvas();
 
         VBox toolbar = new VBox(5);
         toolbar.setStyle("-fx-padding: 10; -fx-background-color: #f4f4f4;");
@@ -142,12 +294,8 @@ public class PaintBrush extends Application {
 
         JFXButton newButton = createStyledButton("New", "mdi2n-note-plus-outline");
         newButton.setOnAction(e -> {
-            gc.setFill(Color.WHITE);
-            gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-            gc.setStroke(currentColor);
-            gc.setLineWidth(currentTool.equals("Eraser") ? gc.getLineWidth() : gc.getLineWidth());
-            shapes.clear();
-            saveCanvas();
+            record(InputSession.CLEAR);
+            clearCanvas();
         });
 
         JFXButton saveButton = createStyledButton("Save", "mdi2f-floppy");
@@ -160,6 +308,7 @@ public class PaintBrush extends Application {
         Label fileLabel = new Label("File");
         fileLabel.setStyle("-fx-font-size: 10; -fx-text-fill: #666;");
         fileBox.getChildren().addAll(fileLabel, fileButtons);
+        tracePhase("canvas and file section");
 
         // Colors Section
         VBox colorsBox = new VBox(5);
@@ -192,13 +341,17 @@ public class PaintBrush extends Application {
         colorPickerBox.setAlignment(Pos.CENTER);
         Label editColorsLabel = new Label("Edit Colors");
         editColorsLabel.setStyle("-fx-font-size: 12; -fx-text-fill: #333;");
-        ColorPicker colorPicker = new ColorPicker();
-        colorPicker.setValue(currentColor);
-        colorPicker.setOnAction(e -> setColor(colorPicker.getValue()));
-        colorPickerBox.getChildren().addAll(editColorsLabel, colorPicker);
+        colorPickerBox.getChildren().add(editColorsLabel);
+        deferredSetup.add(() -> {
+            ColorPicker colorPicker = new ColorPicker();
+            colorPicker.setValue(currentColor);
+            colorPicker.setOnAction(e -> setColor(colorPicker.getValue()));
+            colorPickerBox.getChildren().add(colorPicker);
+        });
         Label colorsLabel = new Label("Colors");
         colorsLabel.setStyle("-fx-font-size: 10; -fx-text-fill: #666;");
         colorsBox.getChildren().addAll(colorsLabel, basicColors, colorPickerBox);
+        tracePhase("colors section");
 
         List<JFXButton> toolButtons = new ArrayList<>();
 
@@ -215,29 +368,25 @@ public class PaintBrush extends Application {
         JFXButton lineButton = createStyledButton("Line", "mdi2v-vector-line");
         lineButton.setOnAction(e -> {
             setActiveButton(lineButton, toolButtons);
-            currentTool = "Line";
-            gc.setLineWidth(gc.getLineWidth());
+            selectTool("Line");
         });
 
         JFXButton rectangleButton = createStyledButton("Rectangle", "mdi2s-square-outline");
         rectangleButton.setOnAction(e -> {
             setActiveButton(rectangleButton, toolButtons);
-            currentTool = "Rectangle";
-            gc.setLineWidth(gc.getLineWidth());
+            selectTool("Rectangle");
         });
 
         JFXButton ovalButton = createStyledButton("Oval", "mdi2c-circle-outline");
         ovalButton.setOnAction(e -> {
             setActiveButton(ovalButton, toolButtons);
-            currentTool = "Oval";
-            gc.setLineWidth(gc.getLineWidth());
+            selectTool("Oval");
         });
 
         JFXButton triangleButton = createStyledButton("Triangle", "mdi2v-vector-triangle");
         triangleButton.setOnAction(e -> {
             setActiveButton(triangleButton, toolButtons);
-            currentTool = "Triangle";
-            gc.setLineWidth(gc.getLineWidth());
+            selectTool("Triangle");
         });
 
         shapesButtons.getChildren().addAll(lineButton, rectangleButton, ovalButton, triangleButton);
@@ -251,15 +400,16 @@ public class PaintBrush extends Application {
         strokeSlider.setPrefWidth(80);
         strokeSlider.valueProperty().addListener((obs, old, newVal) -> {
             double lineWidth = newVal.doubleValue();
-            gc.setLineWidth(currentTool.equals("Eraser") ? lineWidth * 2 : lineWidth);
+            setLineWidth(currentTool.equals("Eraser") ? lineWidth * 2 : lineWidth);
         });
         brushSizeBox.getChildren().addAll(brushSizeLabel, strokeSlider);
         JFXCheckBox filledCheckBox = new JFXCheckBox("Filled Shapes");
         filledCheckBox.setStyle("-fx-font-size: 12; -fx-text-fill: #333;");
-        filledCheckBox.setOnAction(e -> isFilled = filledCheckBox.isSelected());
+        filledCheckBox.setOnAction(e -> setFilled(filledCheckBox.isSelected()));
         Label shapesLabel = new Label("Shapes");
         shapesLabel.setStyle("-fx-font-size: 10; -fx-text-fill: #666;");
         shapesBox.getChildren().addAll(shapesLabel, shapesButtons, brushSizeBox, filledCheckBox);
+        tracePhase("shapes section");
 
         // Tools Section
         VBox toolsBox = new VBox(5);
@@ -276,39 +426,40 @@ public class PaintBrush extends Application {
         JFXButton freeHandButton = createStyledButton("Free Hand", "mdi2p-pencil");
         freeHandButton.setOnAction(e -> {
             setActiveButton(freeHandButton, toolButtons);
-            currentTool = "FreeHand";
-            gc.setStroke(currentColor);
-            gc.setLineWidth(strokeSlider.getValue());
+            selectTool("FreeHand");
+            setLineWidth(strokeSlider.getValue());
         });
 
         JFXButton eraserButton = createStyledButton("Eraser", "mdi2e-eraser");
         eraserButton.setOnAction(e -> {
             setActiveButton(eraserButton, toolButtons);
-            currentTool = "Eraser";
-            gc.setStroke(Color.WHITE);
-            gc.setLineWidth(strokeSlider.getValue() * 2);
+            selectTool("Eraser");
+            setLineWidth(strokeSlider.getValue() * 2);
         });
 
         JFXButton fillShapeButton = createStyledButton("Fill Shape", "mdi2b-bucket");
         fillShapeButton.setOnAction(e -> {
             setActiveButton(fillShapeButton, toolButtons);
-            currentTool = "FillShape";
+            selectTool("FillShape");
         });
 
         JFXButton undoButton = createStyledButton("Undo", "mdi2u-undo");
-        undoButton.setOnAction(e -> undo());
+        undoButton.setOnAction(e -> {
+            record(InputSession.UNDO);
+            undo();
+        });
 
         JFXButton redoButton = createStyledButton("Redo", "mdi2r-redo");
-        redoButton.setOnAction(e -> redo());
+        redoButton.setOnAction(e -> {
+            record(InputSession.REDO);
+            redo();
+        });
 
         JFXButton clearButton = createStyledButton("Clear All", "mdi2t-trash-can-outline");
         clearButton.setOnAction(e -> {
-            gc.setFill(Color.WHITE);
-            gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-            gc.setStroke(currentColor);
-            gc.setLineWidth(currentTool.equals("Eraser") ? strokeSlider.getValue() * 2 : strokeSlider.getValue());
-            shapes.clear();
-            saveCanvas();
+            setLineWidth(currentTool.equals("Eraser") ? strokeSlider.getValue() * 2 : strokeSlider.getValue());
+            record(InputSession.CLEAR);
+            clearCanvas();
         });
 
         toolsButtonsRow1.getChildren().addAll(freeHandButton, eraserButton, fillShapeButton);
@@ -317,6 +468,7 @@ public class PaintBrush extends Application {
         Label toolsLabel = new Label("Tools");
         toolsLabel.setStyle("-fx-font-size: 10; -fx-text-fill: #666;");
         toolsBox.getChildren().addAll(toolsLabel, toolsButtonsRow1, toolsButtonsRow2);
+        tracePhase("tools section");
 
         sections.getChildren().addAll(fileBox, colorsBox, shapesBox, toolsBox);
         toolbar.getChildren().add(sections);
@@ -344,16 +496,67 @@ public class PaintBrush extends Application {
         setupHoverLabel(undoButton, hoverLabel, "Undo (Ctrl+Z)");
         setupHoverLabel(redoButton, hoverLabel, "Redo (Ctrl+Y)");
         setupHoverLabel(clearButton, hoverLabel, "Clear Canvas");
+        tracePhase("hover labels");
+
+        // Setup main layout with hover label
+        VBox root = new VBox(0, toolbar, canvas);
+        root.getChildren().add(hoverLabel); // Add hover label to root
+        root.setFillWidth(true);
+        root.setStyle("-fx-background-color: transparent;");
+        canvas.widthProperty().bind(primaryStage.widthProperty());
+        canvas.heightProperty().bind(primaryStage.heightProperty().subtract(toolbar.heightProperty()));
+        Scene scene = new Scene(root);
+        scene.setFill(Color.TRANSPARENT);
+        scene.getStylesheets().add(getClass().getResource("styles.css").toExternalForm());
+        tracePhase("scene and stylesheet");
+        recording = InputSession.recordIfRequested(primaryStage, scene, canvas);
+        setupSharedCanvas();
+        setupShortcuts(scene, primaryStage, strokeSlider);
+
+        primaryStage.setScene(scene);
+        primaryStage.setTitle("Paint Brush");
+        primaryStage.setResizable(true);
+        primaryStage.setWidth(950);
+        primaryStage.setHeight(700);
+        scene.addPostLayoutPulseListener(new Runnable() {
+            @Override
+            public void run() {
+                if (!firstFrameShown) {
+                    firstFrameShown = true;
+                    Platform.runLater(() -> {
+                        scene.removePostLayoutPulseListener(this);
+                        onFirstFrame();
+                    });
+                }
+            }
+        });
+        primaryStage.show();
+        tracePhase("stage show");
+    }
+
+    /**
+     * Creates the drawing canvas with a white background and its pointer handlers. {@link #start} lays it out
+     * below the toolbar.
+     */
+    Canvas createCanvas() {
+        canvas = new Canvas(900, 600);
+        gc = canvas.getGraphicsContext2D();
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        gc.setStroke(currentColor);
+        gc.setLineWidth(2);
+        undoStack.push(CanvasSnapshot.blank()); // Base entry for undoing the first operation, no readback needed
+
+        canvas.widthProperty().addListener((obs, oldVal, newVal) -> resizeCanvas());
+        canvas.heightProperty().addListener((obs, oldVal, newVal) -> resizeCanvas());
 
         canvas.setOnMousePressed(e -> {
-            double[] coords = clampCoordinates(e.getX(), e.getY());
-            startX = coords[0];
-            startY = coords[1];
+            clampCoordinates(e.getX(), e.getY());
+            startX = clampedX;
+            startY = clampedY;
             if (currentTool.equals("FreeHand") || currentTool.equals("Eraser")) {
-                currentFreehandXPoints.clear();
-                currentFreehandYPoints.clear();
-                currentFreehandXPoints.add(startX);
-                currentFreehandYPoints.add(startY);
+                currentFreehandCount = 0;
+                addFreehandPoint(startX, startY);
             } else if (currentTool.equals("FillShape")) {
                 debug("Clicked at: (" + startX + ", " + startY + ")");
                 fillShapeAtPoint(startX, startY);
@@ -361,28 +564,22 @@ public class PaintBrush extends Application {
         });
 
         canvas.setOnMouseDragged(e -> {
-            double[] coords = clampCoordinates(e.getX(), e.getY());
-            double currentX = coords[0];
-            double currentY = coords[1];
+            clampCoordinates(e.getX(), e.getY());
+            double currentX = clampedX;
+            double currentY = clampedY;
             if (currentTool.equals("FreeHand") || currentTool.equals("Eraser")) {
-                if (currentFreehandXPoints.isEmpty() ||
-                        Math.hypot(currentX - currentFreehandXPoints.get(currentFreehandXPoints.size() - 1),
-                                currentY - currentFreehandYPoints.get(currentFreehandYPoints.size() - 1)) > 2) {
-                    currentFreehandXPoints.add(currentX);
-                    currentFreehandYPoints.add(currentY);
-                    Shape tempShape = new Shape(
-                            currentTool,
-                            startX, startY, 0, 0,
-                            false,
-                            currentTool.equals("Eraser") ? Color.WHITE : currentColor,
-                            null, null,
-                            0, 0, 0, 0,
-                            new ArrayList<>(currentFreehandXPoints),
-                            new ArrayList<>(currentFreehandYPoints),
-                            gc.getLineWidth()
-                    );
+                if (currentFreehandCount == 0 ||
+                        Math.hypot(currentX - currentFreehandXPoints[currentFreehandCount - 1],
+                                currentY - currentFreehandYPoints[currentFreehandCount - 1]) > 2) {
+                    addFreehandPoint(currentX, currentY);
+                    double lineWidth = gc.getLineWidth();
                     redrawCanvas();
-                    drawSingleShape(gc, tempShape);
+                    // The in-progress stroke is drawn straight from the point buffer, without a temporary Shape
+                    Paint brushStroke = gc.getStroke();
+                    setupGraphicsContext(gc, currentTool.equals("Eraser") ? Color.WHITE : currentColor, currentColor, lineWidth);
+                    strokeFreehand(gc, currentFreehandXPoints, currentFreehandYPoints, currentFreehandCount);
+                    gc.setStroke(brushStroke);
+                    gc.setLineWidth(lineWidth);
                 }
             } else if (!currentTool.equals("FillShape")) {
                 redrawCanvas();
@@ -392,13 +589,9 @@ public class PaintBrush extends Application {
 
         canvas.setOnMouseReleased(e -> {
             if (!currentTool.equals("FillShape")) {
-                double[] coords = clampCoordinates(e.getX(), e.getY());
-                double endX = coords[0];
-                double endY = coords[1];
-                if (undoStack.isEmpty() && shapes.size() > 0) {
-                    debug("Clearing shapes list after drawing new shape on empty canvas");
-                    shapes.clear();
-                }
+                clampCoordinates(e.getX(), e.getY());
+                double endX = clampedX;
+                double endY = clampedY;
                 if (currentTool.equals("FreeHand") || currentTool.equals("Eraser")) {
                     Shape shape = new Shape(
                             currentTool,
@@ -407,31 +600,28 @@ public class PaintBrush extends Application {
                             currentTool.equals("Eraser") ? Color.WHITE : currentColor,
                             null, null,
                             0, 0, 0, 0,
-                            new ArrayList<>(currentFreehandXPoints),
-                            new ArrayList<>(currentFreehandYPoints),
+                            Arrays.copyOf(currentFreehandXPoints, currentFreehandCount),
+                            Arrays.copyOf(currentFreehandYPoints, currentFreehandCount),
                             gc.getLineWidth()
                     );
                     redrawCanvas();
                     drawSingleShape(gc, shape);
                     shapes.add(shape);
+                    invalidateShapeLayer();
+                    publishShape(shape);
                 } else {
                     drawShape(gc, currentTool, startX, startY, endX, endY, false);
                 }
                 saveCanvas();
             }
         });
+        return canvas;
+    }
 
-        // Setup main layout with hover label
-        VBox root = new VBox(0, toolbar, canvas);
-        root.getChildren().add(hoverLabel); // Add hover label to root
-        root.setFillWidth(true);
-        root.setStyle("-fx-background-color: transparent;");
-        canvas.widthProperty().bind(primaryStage.widthProperty());
-        canvas.heightProperty().bind(primaryStage.heightProperty().subtract(toolbar.heightProperty()));
-        Scene scene = new Scene(root);
-        scene.setFill(Color.TRANSPARENT);
-        scene.getStylesheets().add(getClass().getResource("styles.css").toExternalForm());
-
+    /**
+     * Installs the Ctrl+Z/Y/S/O/N keyboard shortcuts on the scene.
+     */
+    void setupShortcuts(Scene scene, Stage stage, JFXSlider strokeSlider) {
         scene.setOnKeyPressed(e -> {
             if (e.isControlDown()) {
                 if (e.getCode() == KeyCode.Z) {
@@ -441,29 +631,41 @@ public class PaintBrush extends Application {
                     redo();
                     e.consume();
                 } else if (e.getCode() == KeyCode.S) {
-                    saveImage(primaryStage);
+                    saveImage(stage);
                     e.consume();
                 } else if (e.getCode() == KeyCode.O) {
-                    openImage(primaryStage);
+                    openImage(stage);
                     e.consume();
                 } else if (e.getCode() == KeyCode.N) {
-                    gc.setFill(Color.WHITE);
-                    gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-                    gc.setStroke(currentColor);
-                    gc.setLineWidth(currentTool.equals("Eraser") ? strokeSlider.getValue() * 2 : strokeSlider.getValue());
-                    shapes.clear();
-                    saveCanvas();
+                    setLineWidth(currentTool.equals("Eraser") ? strokeSlider.getValue() * 2 : strokeSlider.getValue());
+                    clearCanvas();
                     e.consume();
                 }
             }
         });
+    }
 
-        primaryStage.setScene(scene);
-        primaryStage.setTitle("Paint Brush");
-        primaryStage.setResizable(true);
-        primaryStage.setWidth(950);
-        primaryStage.setHeight(700);
-        primaryStage.show();
+    /**
+     * Runs once the first frame has been laid out: reports the time to the first interactive frame and then
+     * builds the UI that was deferred to keep it short (icons, the colour picker, hover labels).
+     */
+    private void onFirstFrame() {
+        tracePhase("first frame");
+        if (TRACE_STARTUP) {
+            System.out.printf("[startup] time to first interactive frame: %.2f ms%n", (System.nanoTime() - LAUNCH_TIME) / 1e6);
+        }
+        deferredSetup.forEach(Runnable::run);
+        deferredSetup.clear();
+        tracePhase("deferred UI");
+        InputSession.replayIfRequested(this, canvas);
+    }
+
+    private void tracePhase(String phase) {
+        if (TRACE_STARTUP) {
+            long now = System.nanoTime();
+            System.out.printf("[startup] %-24s %8.2f ms%n", phase, (now - phaseStartTime) / 1e6);
+            phaseStartTime = now;
+        }
     }
 
     private JFXButton createStyledButton(String text, String iconCode) {
@@ -474,23 +676,27 @@ public class PaintBrush extends Application {
         button.setStyle("-fx-text-fill: #333; -fx-font-size: 12;");
         button.setRipplerFill(Color.WHITE.deriveColor(0, 1, 1, 0.4));
         if (iconCode != null) {
-            FontIcon icon = new FontIcon(iconCode);
-            icon.setIconSize(16);
-            icon.getStyleClass().add("font-icon");
-            button.setGraphic(icon);
-            button.setGraphicTextGap(5);
+            deferredSetup.add(() -> {
+                FontIcon icon = new FontIcon(iconCode);
+                icon.setIconSize(16);
+                icon.getStyleClass().add("font-icon");
+                button.setGraphic(icon);
+                button.setGraphicTextGap(5);
+            });
         }
         return button;
     }
 
     private void setupHoverLabel(JFXButton button, Label hoverLabel, String text) {
-        button.setOnMouseEntered(e -> {
-            hoverLabel.setText(text);
-            hoverLabel.setVisible(true);
-            updateHoverLabelPosition(hoverLabel, e);
+        deferredSetup.add(() -> {
+            button.setOnMouseEntered(e -> {
+                hoverLabel.setText(text);
+                hoverLabel.setVisible(true);
+                updateHoverLabelPosition(hoverLabel, e);
+            });
+            button.setOnMouseMoved(e -> updateHoverLabelPosition(hoverLabel, e));
+            button.setOnMouseExited(e -> hoverLabel.setVisible(false));
         });
-        button.setOnMouseMoved(e -> updateHoverLabelPosition(hoverLabel, e));
-        button.setOnMouseExited(e -> hoverLabel.setVisible(false));
     }
 
     private void updateHoverLabelPosition(Label hoverLabel, MouseEvent e) {
@@ -506,20 +712,71 @@ public class PaintBrush extends Application {
                 (int) (color.getBlue() * 255));
     }
 
-    private void setColor(Color color) {
+    /**
+     * Switches the drawing tool. Like the other tool state setters below it is recorded in a session, so that a
+     * replay draws with the same tool, colour, brush size and fill.
+     */
+    void selectTool(String tool) {
+        currentTool = tool;
+        if (tool.equals("FreeHand")) {
+            gc.setStroke(currentColor);
+        } else if (tool.equals("Eraser")) {
+            gc.setStroke(Color.WHITE);
+        }
+        record(InputSession.TOOL, tool);
+    }
+
+    void setColor(Color color) {
         currentColor = new Color(color.getRed(), color.getGreen(), color.getBlue(), 1.0);
         gc.setStroke(currentColor);
         currentTool = currentTool.equals("Eraser") ? "FreeHand" : currentTool;
+        record(InputSession.COLOR, currentColor.toString());
         debug("Color set to: " + currentColor);
     }
 
+    void setLineWidth(double lineWidth) {
+        gc.setLineWidth(lineWidth);
+        record(InputSession.WIDTH, Double.toString(lineWidth));
+    }
+
+    void setFilled(boolean filled) {
+        isFilled = filled;
+        record(InputSession.FILLED, Boolean.toString(filled));
+    }
+
+    /**
+     * Clears the canvas and the shapes to white, as an undoable step.
+     */
+    void clearCanvas() {
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        gc.setStroke(currentColor);
+        shapes.clear();
+        invalidateShapeLayer();
+        publishClear();
+        saveCanvas();
+    }
+
+    private void record(String type) {
+        record(type, "-");
+    }
+
+    private void record(String type, String detail) {
+        if (recording != null) {
+            recording.add(type, 0, 0, detail, false);
+        }
+    }
+
     private void setActiveButton(JFXButton activeButton, List<JFXButton> buttons) {
         buttons.forEach(button -> button.getStyleClass().remove("active-button"));
         activeButton.getStyleClass().add("active-button");
     }
 
+    /**
+     * Sets the drawing state directly instead of through save()/restore(), which copies the whole state per call.
+     * Callers put back the brush stroke and line width afterwards, the only state the rest of the app relies on.
+     */
     private void setupGraphicsContext(GraphicsContext gc, Color strokeColor, Color fillColor, double lineWidth) {
-        gc.save();
         gc.setTransform(1, 0, 0, 1, 0, 0);
         gc.setStroke(strokeColor);
         gc.setFill(fillColor);
@@ -528,6 +785,8 @@ public class PaintBrush extends Application {
     }
 
     private void drawSingleShape(GraphicsContext gc, Shape shape) {
+        Paint brushStroke = gc.getStroke();
+        double brushLineWidth = gc.getLineWidth();
         setupGraphicsContext(gc, shape.color, shape.color, shape.lineWidth);
         double x = shape.x;
         double y = shape.y;
@@ -558,17 +817,51 @@ public class PaintBrush extends Application {
                 break;
             case "FreeHand":
             case "Eraser":
-                if (!shape.freehandXPoints.isEmpty()) {
-                    gc.beginPath();
-                    gc.moveTo(shape.freehandXPoints.get(0), shape.freehandYPoints.get(0));
-                    for (int i = 1; i < shape.freehandXPoints.size(); i++) {
-                        gc.lineTo(shape.freehandXPoints.get(i), shape.freehandYPoints.get(i));
-                    }
-                    gc.stroke();
+                if (shape.freehandXPoints.length > 0) {
+                    int level = shape.lodLevel(renderScale(gc));
+                    double[] xPoints = shape.lodXPoints(level);
+                    strokeFreehand(gc, xPoints, shape.lodYPoints(level), xPoints.length);
                 }
                 break;
         }
-        gc.restore();
+        gc.setStroke(brushStroke);
+        gc.setLineWidth(brushLineWidth);
+    }
+
+    private void strokeFreehand(GraphicsContext gc, double[] xPoints, double[] yPoints, int count) {
+        gc.beginPath();
+        gc.moveTo(xPoints[0], yPoints[0]);
+        for (int i = 1; i < count; i++) {
+            gc.lineTo(xPoints[i], yPoints[i]);
+        }
+        gc.stroke();
+    }
+
+    private void addFreehandPoint(double x, double y) {
+        if (currentFreehandCount == currentFreehandXPoints.length) {
+            currentFreehandXPoints = Arrays.copyOf(currentFreehandXPoints, currentFreehandCount * 2);
+            currentFreehandYPoints = Arrays.copyOf(currentFreehandYPoints, currentFreehandCount * 2);
+        }
+        currentFreehandXPoints[currentFreehandCount] = x;
+        currentFreehandYPoints[currentFreehandCount] = y;
+        currentFreehandCount++;
+    }
+
+    /**
+     * Returns how many device pixels one canvas unit currently covers, taking into account any scaling of
+     * the canvas node and the output scale of the screen. The app itself never scales the canvas, so this
+     * only drops below 1 (and coarser strokes get drawn) when the canvas is shown scaled down by an embedder.
+     */
+    private double renderScale(GraphicsContext gc) {
+        Canvas target = gc.getCanvas();
+        Transform toScene = target.getLocalToSceneTransform();
+        double scale = Math.max(Math.hypot(toScene.getMxx(), toScene.getMyx()),
+                Math.hypot(toScene.getMxy(), toScene.getMyy()));
+        Window window = target.getScene() != null ? target.getScene().getWindow() : null;
+        if (window != null) {
+            scale *= Math.max(window.getOutputScaleX(), window.getOutputScaleY());
+        }
+        return scale;
     }
 
     private void drawShape(GraphicsContext gc, String tool, double startX, double startY, double endX, double endY, boolean isPreview) {
@@ -578,18 +871,19 @@ public class PaintBrush extends Application {
         double height = Math.abs(endY - startY);
         Shape shape = null;
 
+        // Built in the reusable preview shape; only a committed shape gets its own copy
         switch (tool) {
             case "Line":
-                shape = new Shape("Line", x, y, width, height, false, currentColor, null, null,
-                        startX, startY, endX, endY, null, null, gc.getLineWidth());
+                shape = previewShape.set("Line", x, y, width, height, false, currentColor, null, null,
+                        startX, startY, endX, endY, gc.getLineWidth());
                 break;
             case "Rectangle":
-                shape = new Shape("Rectangle", x, y, width, height, isFilled, currentColor, null, null,
-                        0, 0, 0, 0, null, null, gc.getLineWidth());
+                shape = previewShape.set("Rectangle", x, y, width, height, isFilled, currentColor, null, null,
+                        0, 0, 0, 0, gc.getLineWidth());
                 break;
             case "Oval":
-                shape = new Shape("Oval", x, y, width, height, isFilled, currentColor, null, null,
-                        0, 0, 0, 0, null, null, gc.getLineWidth());
+                shape = previewShape.set("Oval", x, y, width, height, isFilled, currentColor, null, null,
+                        0, 0, 0, 0, gc.getLineWidth());
                 break;
             case "Triangle":
                 double leftX = Math.min(startX, endX);
@@ -597,23 +891,32 @@ public class PaintBrush extends Application {
                 double topX = (leftX + rightX) / 2;
                 double topY = Math.min(startY, endY);
                 double baseY = Math.max(startY, endY);
-                double[] xPoints = {leftX, rightX, topX};
-                double[] yPoints = {baseY, baseY, topY};
+                double[] xPoints = triangleXPoints;
+                double[] yPoints = triangleYPoints;
+                xPoints[0] = leftX;
+                xPoints[1] = rightX;
+                xPoints[2] = topX;
+                yPoints[0] = baseY;
+                yPoints[1] = baseY;
+                yPoints[2] = topY;
 
                 for (int i = 0; i < xPoints.length; i++) {
                     xPoints[i] = Math.max(0, Math.min(xPoints[i], canvas.getWidth()));
                     yPoints[i] = Math.max(0, Math.min(yPoints[i], canvas.getHeight()));
                 }
 
-                shape = new Shape("Triangle", x, y, width, height, isFilled, currentColor, xPoints, yPoints,
-                        0, 0, 0, 0, null, null, gc.getLineWidth());
+                shape = previewShape.set("Triangle", x, y, width, height, isFilled, currentColor, xPoints, yPoints,
+                        0, 0, 0, 0, gc.getLineWidth());
                 break;
         }
 
         if (shape != null) {
             drawSingleShape(gc, shape);
             if (!isPreview) {
+                shape = shape.copy();
                 shapes.add(shape);
+                invalidateShapeLayer();
+                publishShape(shape);
             }
         }
     }
@@ -626,6 +929,8 @@ public class PaintBrush extends Application {
                 shapeFound = true;
                 shape.filled = true;
                 shape.color = new Color(currentColor.getRed(), currentColor.getGreen(), currentColor.getBlue(), 1.0);
+                invalidateShapeLayer();
+                publishFill(shape);
                 debug("Filled shape: " + shape.type + " at (" + shape.x + ", " + shape.y + ")");
                 redrawCanvas();
                 drawSingleShape(gc, shape);
@@ -638,39 +943,100 @@ public class PaintBrush extends Application {
         }
     }
 
+    /**
+     * Repaints the committed shapes. A one-off repaint replays them as before; when the same shapes are
+     * repainted a second time (a drag preview) the result is captured at the screen's output scale, and every
+     * further repaint just blits it back until the shapes change.
+     */
     private void redrawCanvas() {
-        gc.save();
         gc.setTransform(1, 0, 0, 1, 0, 0);
+        if (isShapeLayerCurrent()) {
+            gc.drawImage(shapeLayer, 0, 0, shapeLayerWidth * shapeLayerScaleX, shapeLayerHeight * shapeLayerScaleY,
+                    0, 0, shapeLayerWidth, shapeLayerHeight);
+            return;
+        }
         gc.setFill(Color.WHITE);
         gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
         for (Shape shape : shapes) {
             drawSingleShape(gc, shape);
         }
-        gc.restore();
+        if (shapesReplayed) {
+            captureShapeLayer();
+        } else {
+            // Skips the snapshot readback for repaints that are not followed by another one
+            shapesReplayed = true;
+        }
+    }
+
+    private void captureShapeLayer() {
+        Window window = canvas.getScene() != null ? canvas.getScene().getWindow() : null;
+        double scaleX = window != null ? window.getOutputScaleX() : 1;
+        double scaleY = window != null ? window.getOutputScaleY() : 1;
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setTransform(Transform.scale(scaleX, scaleY));
+        // Reuses the previous layer image when neither the canvas size nor the output scale has changed
+        boolean reusable = isShapeLayerSized() && shapeLayerScaleX == scaleX && shapeLayerScaleY == scaleY;
+        shapeLayer = canvas.snapshot(parameters, reusable ? shapeLayer : null);
+        shapeLayerWidth = canvas.getWidth();
+        shapeLayerHeight = canvas.getHeight();
+        shapeLayerScaleX = scaleX;
+        shapeLayerScaleY = scaleY;
+        shapeLayerValid = true;
+        debug("Shape layer captured from " + shapes.size() + " shapes");
+    }
+
+    private boolean isShapeLayerSized() {
+        return shapeLayer != null
+                && shapeLayerWidth == canvas.getWidth()
+                && shapeLayerHeight == canvas.getHeight();
+    }
+
+    private boolean isShapeLayerCurrent() {
+        return shapeLayerValid && isShapeLayerSized();
+    }
+
+    private void invalidateShapeLayer() {
+        shapeLayerValid = false;
+        shapesReplayed = false;
     }
 
     private void saveCanvas() {
         redoStack.clear();
         WritableImage snapshot = canvas.snapshot(null, null);
-        undoStack.push(snapshot);
+        undoStack.push(new CanvasSnapshot(snapshot));
         currentSnapshot = snapshot;
+        memoryGovernor.enforce();
+        if (DEBUG) {
+            debug("Memory: shapes " + memoryGovernor.shapesBytes() + " bytes, history " + memoryGovernor.historyBytes() + " bytes");
+        }
     }
 
     private void restoreCanvasState() {
         if (!undoStack.isEmpty()) {
-            currentSnapshot = undoStack.peek();
-            gc.setTransform(1, 0, 0, 1, 0, 0);
+            drawSnapshot(undoStack.peek());
+        }
+    }
+
+    private void drawSnapshot(CanvasSnapshot snapshot) {
+        currentSnapshot = snapshot.image();
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        if (currentSnapshot == null) {
+            // The blank canvas the session started with
+            gc.setFill(Color.WHITE);
+            gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        } else {
             gc.drawImage(currentSnapshot, 0, 0);
         }
     }
 
-    private void undo() {
+    void undo() {
         if (!undoStack.isEmpty()) {
             redoStack.push(undoStack.pop());
             if (undoStack.isEmpty()) {
                 gc.setFill(Color.WHITE);
                 gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
                 shapes.clear();
+                invalidateShapeLayer();
                 currentSnapshot = null;
             } else {
                 restoreCanvasState();
@@ -678,12 +1044,11 @@ public class PaintBrush extends Application {
         }
     }
 
-    private void redo() {
+    void redo() {
         if (!redoStack.isEmpty()) {
-            WritableImage snapshot = redoStack.pop();
+            CanvasSnapshot snapshot = redoStack.pop();
             undoStack.push(snapshot);
-            gc.setTransform(1, 0, 0, 1, 0, 0);
-            gc.drawImage(snapshot, 0, 0);
+            drawSnapshot(snapshot);
         }
     }
 
@@ -721,6 +1086,8 @@ public class PaintBrush extends Application {
                 Image image = new Image(file.toURI().toString(), canvas.getWidth(), canvas.getHeight(), false, true);
                 gc.drawImage(image, 0, 0);
                 shapes.clear();
+                invalidateShapeLayer();
+                publishClear(); // Opened images stay local, peers only drop their shapes
                 saveCanvas();
                 showAlert(Alert.AlertType.INFORMATION, "Success", "Image loaded successfully!");
             } catch (Exception e) {
@@ -737,6 +1104,66 @@ public class PaintBrush extends Application {
         alert.showAndWait();
     }
 
+    private void setupSharedCanvas() {
+        try {
+            sharedCanvas = SharedCanvas.fromSystemProperties(new SharedCanvas.Listener() {
+                @Override
+                public List<Shape> shapes() {
+                    return shapes;
+                }
+
+                @Override
+                public void shapeAdded(Shape shape) {
+                    shapes.add(shape);
+                    invalidateShapeLayer();
+                }
+
+                @Override
+                public void shapeFilled(long id, Color color) {
+                    for (Shape shape : shapes) {
+                        if (shape.id == id) {
+                            shape.filled = true;
+                            shape.color = color;
+                            invalidateShapeLayer();
+                            break;
+                        }
+                    }
+                }
+
+                @Override
+                public void cleared() {
+                    shapes.clear();
+                    invalidateShapeLayer();
+                }
+
+                @Override
+                public void batchApplied() {
+                    redrawCanvas();
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            showAlert(Alert.AlertType.ERROR, "Error", "Failed to share canvas: " + e.getMessage());
+        }
+    }
+
+    private void publishShape(Shape shape) {
+        if (sharedCanvas != null) {
+            sharedCanvas.publishShape(shape);
+        }
+    }
+
+    private void publishFill(Shape shape) {
+        if (sharedCanvas != null) {
+            sharedCanvas.publishFill(shape);
+        }
+    }
+
+    private void publishClear() {
+        if (sharedCanvas != null) {
+            sharedCanvas.publishClear();
+        }
+    }
+
     private void debug(String message) {
         if (DEBUG) {
             System.out.println(message);
@@ -744,16 +1171,18 @@ public class PaintBrush extends Application {
     }
 
     private void resizeCanvas() {
+        invalidateShapeLayer();
         gc.setFill(Color.WHITE);
         gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
         restoreCanvasState();
     }
 
-    private double[] clampCoordinates(double x, double y) {
-        return new double[] {
-                Math.max(0, Math.min(x, canvas.getWidth())),
-                Math.max(0, Math.min(y, canvas.getHeight()))
-        };
+    /**
+     * Clamps a pointer position to the canvas into {@code clampedX}/{@code clampedY}, avoiding an array per event.
+     */
+    private void clampCoordinates(double x, double y) {
+        clampedX = Math.max(0, Math.min(x, canvas.getWidth()));
+        clampedY = Math.max(0, Math.min(y, canvas.getHeight()));
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,462 @@
+package org.example.paintbrushfx;
+
+import javafx.application.Platform;
+import javafx.scene.paint.Color;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares the committed shapes of a {@link PaintBrush} canvas between processes over TCP.
+ * <p>
+ * One process hosts ({@code -Dpaintbrush.shareHost=<port>}, bound to the loopback interface) and any number of
+ * clients join it ({@code -Dpaintbrush.shareJoin=<host>:<port>}). Committed operations (new shape, clear, fill)
+ * are sent to the host, which applies them and relays them to every other client. A client that joins late
+ * receives the host's current shapes as its bootstrap instead of the full history.
+ * <p>
+ * Each connection has its own writer thread that drains everything queued since its last write and flushes
+ * once, and received operations are applied on the FX thread in one batch per frame. A connection whose queue
+ * grows past a bound, because the other side stopped reading, is dropped rather than buffered without limit. Freehand points are
+ * sent as deltas of 1/16 pixel fixed-point values, so a stroke costs a byte or two per point.
+ */
+class SharedCanvas {
+    /**
+     * The canvas side of the sharing, called on the FX thread.
+     */
+    interface Listener {
+        List<PaintBrush.Shape> shapes();
+
+        void shapeAdded(PaintBrush.Shape shape);
+
+        void shapeFilled(long id, Color color);
+
+        void cleared();
+
+        void batchApplied();
+    }
+
+    private static final byte OP_SHAPE = 1;
+    private static final byte OP_CLEAR = 2;
+    private static final byte OP_FILL = 3;
+    private static final double POINT_SCALE = 16; // Fixed-point resolution of freehand points
+    private static final byte[] CLOSED = new byte[0]; // Wakes a connection's writer up to exit
+    private static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_QUEUED_MESSAGES = 64 * 1024;
+    private static final long MAX_QUEUED_BYTES = 64 * 1024 * 1024;
+
+    private final Listener listener;
+    private final boolean host;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final Queue<Message> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean applyScheduled = new AtomicBoolean();
+    private final long idPrefix = ThreadLocalRandom.current().nextLong() << 24; // Keeps shape ids unique across processes
+    private long nextId = 1;
+    private ServerSocket server;
+
+    private SharedCanvas(Listener listener, boolean host) {
+        this.listener = listener;
+        this.host = host;
+    }
+
+    /**
+     * Hosts or joins a shared canvas when requested by a system property, otherwise returns {@code null}.
+     */
+    static SharedCanvas fromSystemProperties(Listener listener) throws IOException {
+        String hostPort = System.getProperty("paintbrush.shareHost");
+        String join = System.getProperty("paintbrush.shareJoin");
+        if (hostPort != null) {
+            return host(listener, Integer.parseInt(hostPort));
+        } else if (join != null) {
+            int separator = join.lastIndexOf(':');
+            return join(listener, join.substring(0, separator), Integer.parseInt(join.substring(separator + 1)));
+        }
+        return null;
+    }
+
+    /**
+     * Hosts a shared canvas on the given loopback port, or on a free one for port 0.
+     */
+    static SharedCanvas host(Listener listener, int port) throws IOException {
+        SharedCanvas shared = new SharedCanvas(listener, true);
+        shared.listen(port);
+        return shared;
+    }
+
+    static SharedCanvas join(Listener listener, String host, int port) throws IOException {
+        SharedCanvas shared = new SharedCanvas(listener, false);
+        shared.connections.add(shared.open(new Socket(host, port)));
+        return shared;
+    }
+
+    /**
+     * Returns the port a host listens on.
+     */
+    int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stops hosting and drops every connection.
+     */
+    void close() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    void publishShape(PaintBrush.Shape shape) {
+        broadcast(encodeShape(shape), null);
+    }
+
+    void publishFill(PaintBrush.Shape shape) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(24);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(OP_FILL);
+            out.writeLong(idOf(shape));
+            out.writeInt(toArgb(shape.color));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        broadcast(bytes.toByteArray(), null);
+    }
+
+    void publishClear() {
+        broadcast(new byte[] {OP_CLEAR}, null);
+    }
+
+    private void listen(int port) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        startDaemon("shared-canvas-accept", () -> {
+            while (!server.isClosed()) {
+                try {
+                    Connection connection = open(server.accept());
+                    // Bootstrap on the FX thread so no operation slips in between the snapshot and the relay
+                    Platform.runLater(() -> {
+                        for (PaintBrush.Shape shape : listener.shapes()) {
+                            connection.send(encodeShape(shape));
+                        }
+                        connections.add(connection);
+                    });
+                } catch (IOException e) {
+                    if (!server.isClosed()) {
+                        System.err.println("[share] accept failed: " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    private Connection open(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        Connection connection = new Connection(socket);
+        startDaemon("shared-canvas-writer", connection::writeLoop);
+        startDaemon("shared-canvas-reader", connection::readLoop);
+        return connection;
+    }
+
+    private void broadcast(byte[] message, Connection origin) {
+        for (Connection connection : connections) {
+            if (connection != origin) {
+                connection.send(message);
+            }
+        }
+    }
+
+    private void receive(Message message) {
+        incoming.add(message);
+        if (applyScheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::applyIncoming);
+        }
+    }
+
+    /**
+     * Applies everything received since the last frame in one go, relaying it to the other clients when hosting.
+     */
+    private void applyIncoming() {
+        applyScheduled.set(false);
+        Message message;
+        while ((message = incoming.poll()) != null) {
+            try {
+                apply(new DataInputStream(new ByteArrayInputStream(message.bytes)));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[share] dropped malformed operation: " + e);
+                continue;
+            }
+            if (host) {
+                broadcast(message.bytes, message.origin);
+            }
+        }
+        listener.batchApplied();
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case OP_SHAPE:
+                listener.shapeAdded(decodeShape(in));
+                break;
+            case OP_FILL:
+                listener.shapeFilled(in.readLong(), fromArgb(in.readInt()));
+                break;
+            case OP_CLEAR:
+                listener.cleared();
+                break;
+            default:
+                throw new IOException("unknown operation");
+        }
+    }
+
+    byte[] encodeShape(PaintBrush.Shape shape) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(OP_SHAPE);
+            out.writeLong(idOf(shape));
+            out.writeUTF(shape.type);
+            out.writeInt(toArgb(shape.color));
+            out.writeBoolean(shape.filled);
+            out.writeDouble(shape.lineWidth);
+            out.writeDouble(shape.x);
+            out.writeDouble(shape.y);
+            out.writeDouble(shape.width);
+            out.writeDouble(shape.height);
+            switch (shape.type) {
+                case "Line":
+                    out.writeDouble(shape.lineStartX);
+                    out.writeDouble(shape.lineStartY);
+                    out.writeDouble(shape.lineEndX);
+                    out.writeDouble(shape.lineEndY);
+                    break;
+                case "Triangle":
+                    for (int i = 0; i < 3; i++) {
+                        out.writeDouble(shape.xPoints[i]);
+                        out.writeDouble(shape.yPoints[i]);
+                    }
+                    break;
+                case "FreeHand":
+                case "Eraser":
+                    writeVarInt(out, shape.freehandXPoints.length);
+                    writeDeltas(out, shape.freehandXPoints);
+                    writeDeltas(out, shape.freehandYPoints);
+                    break;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a shape encoded by {@link #encodeShape}, reading from just after the operation byte.
+     */
+    PaintBrush.Shape decodeShape(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        String type = in.readUTF();
+        Color color = fromArgb(in.readInt());
+        boolean filled = in.readBoolean();
+        double lineWidth = in.readDouble();
+        double x = in.readDouble();
+        double y = in.readDouble();
+        double width = in.readDouble();
+        double height = in.readDouble();
+        PaintBrush.Shape shape = new PaintBrush.Shape(type, x, y, width, height, filled, color,
+                null, null, 0, 0, 0, 0, null, null, lineWidth);
+        shape.id = id;
+        switch (type) {
+            case "Line":
+                shape.lineStartX = in.readDouble();
+                shape.lineStartY = in.readDouble();
+                shape.lineEndX = in.readDouble();
+                shape.lineEndY = in.readDouble();
+                break;
+            case "Triangle":
+                shape.xPoints = new double[3];
+                shape.yPoints = new double[3];
+                for (int i = 0; i < 3; i++) {
+                    shape.xPoints[i] = in.readDouble();
+                    shape.yPoints[i] = in.readDouble();
+                }
+                break;
+            case "FreeHand":
+            case "Eraser":
+                int count = readVarInt(in);
+                // Every point takes at least a byte for each axis
+                if (count < 0 || 2L * count > in.available()) {
+                    throw new IOException("invalid point count " + count);
+                }
+                shape.freehandXPoints = readDeltas(in, count);
+                shape.freehandYPoints = readDeltas(in, count);
+                break;
+        }
+        return shape;
+    }
+
+    private long idOf(PaintBrush.Shape shape) {
+        if (shape.id == 0) {
+            shape.id = idPrefix | nextId++;
+        }
+        return shape.id;
+    }
+
+    private static void writeDeltas(DataOutputStream out, double[] points) throws IOException {
+        long previous = 0;
+        for (double point : points) {
+            long fixed = Math.round(point * POINT_SCALE);
+            long delta = fixed - previous;
+            writeVarInt(out, (int) ((delta << 1) ^ (delta >> 63))); // Zig-zag keeps small negative deltas short
+            previous = fixed;
+        }
+    }
+
+    private static double[] readDeltas(DataInputStream in, int count) throws IOException {
+        double[] points = new double[count];
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            int zigzag = readVarInt(in);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            points[i] = previous / POINT_SCALE;
+        }
+        return points;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private static int toArgb(Color color) {
+        return ((int) Math.round(color.getOpacity() * 255) << 24)
+                | ((int) Math.round(color.getRed() * 255) << 16)
+                | ((int) Math.round(color.getGreen() * 255) << 8)
+                | (int) Math.round(color.getBlue() * 255);
+    }
+
+    private static Color fromArgb(int argb) {
+        return Color.rgb((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, ((argb >>> 24) & 0xFF) / 255.0);
+    }
+
+    private static void startDaemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private record Message(byte[] bytes, Connection origin) {
+    }
+
+    private class Connection {
+        private final Socket socket;
+        private final BlockingQueue<byte[]> outgoing = new LinkedBlockingQueue<>(MAX_QUEUED_MESSAGES);
+        private final AtomicLong queuedBytes = new AtomicLong();
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Queues a message for the writer, dropping the connection if it has fallen too far behind.
+         */
+        void send(byte[] message) {
+            if (queuedBytes.addAndGet(message.length) > MAX_QUEUED_BYTES || !outgoing.offer(message)) {
+                System.err.println("[share] dropping connection to " + socket.getRemoteSocketAddress()
+                        + ": fell behind by " + outgoing.size() + " messages");
+                close();
+            }
+        }
+
+        void writeLoop() {
+            List<byte[]> batch = new ArrayList<>();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+                while (true) {
+                    batch.add(outgoing.take());
+                    outgoing.drainTo(batch);
+                    for (byte[] message : batch) {
+                        if (message == CLOSED) {
+                            return;
+                        }
+                        writeVarInt(out, message.length);
+                        out.write(message);
+                        queuedBytes.addAndGet(-message.length);
+                    }
+                    out.flush();
+                    batch.clear();
+                }
+            } catch (IOException | InterruptedException e) {
+                close();
+            }
+        }
+
+        void readLoop() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                while (true) {
+                    int length = readVarInt(in);
+                    if (length <= 0 || length > MAX_MESSAGE_BYTES) {
+                        throw new IOException("invalid message length " + length);
+                    }
+                    byte[] message = new byte[length];
+                    in.readFully(message);
+                    receive(new Message(message, this));
+                }
+            } catch (EOFException e) {
+                close(); // The other side hung up
+            } catch (IOException | RuntimeException e) {
+                if (!socket.isClosed()) {
+                    System.err.println("[share] dropping connection to " + socket.getRemoteSocketAddress() + ": " + e);
+                }
+                close();
+            }
+        }
+
+        void close() {
+            if (connections.remove(this)) {
+                System.out.println("[share] connection to " + socket.getRemoteSocketAddress() + " closed");
+            }
+            // Nothing queued will be written any more, and clearing makes room for the sentinel
+            outgoing.clear();
+            outgoing.offer(CLOSED);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already closed by the other side
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.example.paintbrushfx;
+
+import javafx.event.EventType;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives the canvas press, drag and release handlers directly and checks that a drag allocates nothing once a
+ * stroke is under way, for every drawing tool.
+ */
+class DragAllocationTest {
+    private static final int DRAGS = 100;
+    // The first drag of a stroke replays the shapes and the second captures them as the shape layer
+    private static final int STROKE_WARMUP_DRAGS = 2;
+    private static final int MEASURED_STROKES = 3;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private PaintBrush app;
+    private Canvas canvas;
+
+    @BeforeEach
+    void showCanvas() throws Exception {
+        app = new PaintBrush();
+        canvas = FxToolkit.call(() -> FxToolkit.showCanvas(app));
+    }
+
+    @AfterEach
+    void hideCanvas() throws Exception {
+        FxToolkit.hide(canvas);
+    }
+
+    @Test
+    void freehandDragsAllocateNothing() throws Exception {
+        assertSteadyDragsAllocateNothing("FreeHand");
+    }
+
+    @Test
+    void lineDragsAllocateNothing() throws Exception {
+        assertSteadyDragsAllocateNothing("Line");
+    }
+
+    @Test
+    void rectangleDragsAllocateNothing() throws Exception {
+        assertSteadyDragsAllocateNothing("Rectangle");
+    }
+
+    @Test
+    void ovalDragsAllocateNothing() throws Exception {
+        assertSteadyDragsAllocateNothing("Oval");
+    }
+
+    @Test
+    void triangleDragsAllocateNothing() throws Exception {
+        assertSteadyDragsAllocateNothing("Triangle");
+    }
+
+    private void assertSteadyDragsAllocateNothing(String tool) throws Exception {
+        assertTrue(threads.isThreadAllocatedMemorySupported());
+        FxToolkit.run(() -> app.selectTool(tool));
+        // Until the handlers are compiled, deoptimisations now and then materialise objects, so the JIT is warmed
+        // up first. The paced strokes then grow the canvas command buffers the toolkit pools between frames.
+        for (int stroke = 0; stroke < 25; stroke++) {
+            drawStroke(stroke * 20, false);
+        }
+        for (int stroke = 0; stroke < 3; stroke++) {
+            drawStroke(stroke * 20, true);
+        }
+        // Now and then the runtime puts a few hundred bytes of strings on the FX thread under a compiled frame in
+        // the middle of a stroke. An allocation in the handlers happens on every stroke, so one clean stroke passes.
+        long[] none = new long[DRAGS - STROKE_WARMUP_DRAGS];
+        long[] steady = new long[none.length];
+        for (int stroke = 0; stroke < MEASURED_STROKES; stroke++) {
+            long[] allocated = drawStroke(100 + stroke * 20, true);
+            System.arraycopy(allocated, STROKE_WARMUP_DRAGS, steady, 0, steady.length);
+            if (Arrays.equals(none, steady)) {
+                break;
+            }
+        }
+        assertArrayEquals(none, steady, "bytes allocated per steady-state " + tool + " drag");
+    }
+
+    /**
+     * Draws one stroke with the current tool and returns the bytes each drag allocated on the FX thread. A paced stroke lets a
+     * frame render between the events, as it would interactively.
+     */
+    private long[] drawStroke(double offset, boolean paced) throws Exception {
+        MouseEvent[] drags = new MouseEvent[DRAGS];
+        for (int i = 0; i < DRAGS; i++) {
+            drags[i] = mouseEvent(MouseEvent.MOUSE_DRAGGED, 50 + i * 5, 200 + offset + 40 * Math.sin(i / 10.0));
+        }
+        MouseEvent press = mouseEvent(MouseEvent.MOUSE_PRESSED, 45, 200 + offset);
+        MouseEvent release = mouseEvent(MouseEvent.MOUSE_RELEASED, 50 + (DRAGS - 1) * 5, 200 + offset);
+
+        long[] allocated = new long[DRAGS];
+        FxToolkit.run(() -> canvas.getOnMousePressed().handle(press));
+        for (int i = 0; i < DRAGS; i++) {
+            if (paced) {
+                Thread.sleep(20);
+            }
+            MouseEvent drag = drags[i];
+            int index = i;
+            FxToolkit.run(() -> {
+                long before = threads.getCurrentThreadAllocatedBytes();
+                canvas.getOnMouseDragged().handle(drag);
+                allocated[index] = threads.getCurrentThreadAllocatedBytes() - before;
+            });
+        }
+        FxToolkit.run(() -> canvas.getOnMouseReleased().handle(release));
+        return allocated;
+    }
+
+    private MouseEvent mouseEvent(EventType<MouseEvent> type, double x, double y) {
+        return new MouseEvent(canvas, canvas, type, x, y, x, y, MouseButton.PRIMARY, 1,
+                false, false, false, false, type != MouseEvent.MOUSE_RELEASED, false, false,
+                true, false, false, null);
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.paintbrushfx;
+
+import com.jfoenix.controls.JFXSlider;
+import javafx.application.Platform;
+import javafx.scene.Group;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.stage.Stage;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the JavaFX toolkit once per test JVM (headless with Monocle, see the surefire configuration) and runs
+ * test code on the FX thread.
+ */
+final class FxToolkit {
+    private static boolean started = false;
+
+    private FxToolkit() {
+    }
+
+    static synchronized void start() {
+        if (started) {
+            return;
+        }
+        CompletableFuture<Void> ready = new CompletableFuture<>();
+        Platform.startup(() -> ready.complete(null));
+        Platform.setImplicitExit(false);
+        ready.join();
+        started = true;
+    }
+
+    static <T> T call(Callable<T> task) throws Exception {
+        start();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result.get(30, TimeUnit.SECONDS);
+    }
+
+    static void run(Runnable task) throws Exception {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Shows the canvas of a {@link PaintBrush} with its pointer handlers and shortcuts in a window of its own,
+     * leaving out the toolbar. Must be called on the FX thread.
+     */
+    static Canvas showCanvas(PaintBrush app) {
+        Canvas canvas = app.createCanvas();
+        Scene scene = new Scene(new Group(canvas));
+        Stage stage = new Stage();
+        stage.setScene(scene);
+        app.setupShortcuts(scene, stage, new JFXSlider(1, 20, 2));
+        stage.show();
+        return canvas;
+    }
+
+    static void hide(Canvas canvas) throws Exception {
+        run(() -> canvas.getScene().getWindow().hide());
+    }
+}
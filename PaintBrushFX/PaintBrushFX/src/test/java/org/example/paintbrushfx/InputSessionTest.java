@@ -0,0 +1,58 @@
+package org.example.paintbrushfx;
+
+import javafx.scene.canvas.Canvas;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Replays the sessions under {@code src/test/resources/sessions} and checks them against the
+ * {@code paintbrush.replay.*} limits configured for surefire in the pom. The sessions are synthetic, written by the
+ * {@code generate.py} next to them.
+ */
+class InputSessionTest {
+
+    @Test
+    void scribbles() throws Exception {
+        replayWithinLimits("scribbles");
+    }
+
+    @Test
+    void undoRedo() throws Exception {
+        replayWithinLimits("undo-redo");
+    }
+
+    @Test
+    void longStroke() throws Exception {
+        replayWithinLimits("long-stroke");
+    }
+
+    @Test
+    void toolbar() throws Exception {
+        // Shapes, filled shapes, fill, eraser, undo, redo and clear, switched as toolbar state events
+        replayWithinLimits("toolbar");
+    }
+
+    private void replayWithinLimits(String session) throws Exception {
+        List<String> events = Files.readAllLines(Path.of(getClass().getResource("/sessions/" + session + ".session").toURI()));
+        PaintBrush app = new PaintBrush();
+        Canvas canvas = FxToolkit.call(() -> FxToolkit.showCanvas(app));
+        InputSession.Report report;
+        try {
+            report = FxToolkit.call(() -> InputSession.replay(app, canvas, events)).get(60, TimeUnit.SECONDS);
+        } finally {
+            FxToolkit.hide(canvas);
+        }
+        report.print();
+        assertEquals(events.size(), report.events);
+        assertTrue(report.steadyDrags > 0, "no steady-state drags measured");
+        List<String> regressions = report.regressions();
+        assertTrue(regressions.isEmpty(), session + ": " + regressions);
+    }
+}
@@ -0,0 +1,208 @@
+package org.example.paintbrushfx;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryGovernorTest {
+    private static final int SNAPSHOT_WIDTH = 90;
+    private static final int SNAPSHOT_HEIGHT = 60;
+    private static final long SNAPSHOT_BYTES = SNAPSHOT_WIDTH * SNAPSHOT_HEIGHT * 4;
+
+    private final List<PaintBrush.Shape> shapes = new ArrayList<>();
+    private final Stack<CanvasSnapshot> undoStack = new Stack<>();
+    private final Stack<CanvasSnapshot> redoStack = new Stack<>();
+    private final Random random = new Random(42);
+    private int shapesChanged = 0;
+
+    @BeforeAll
+    static void startToolkit() {
+        FxToolkit.start(); // Images need the toolkit
+    }
+
+    @BeforeEach
+    void startWithABlankCanvas() {
+        undoStack.push(CanvasSnapshot.blank());
+    }
+
+    @Test
+    void accountingMatchesAFreshMeasurement() {
+        MemoryGovernor governor = governor(Long.MAX_VALUE);
+        for (int i = 0; i < 20; i++) {
+            shapes.add(ShapeLodTest.stroke(100 + i));
+            save(governor);
+        }
+        assertEquals(20 * SNAPSHOT_BYTES, governor.historyBytes()); // The blank base entry holds no pixels
+        assertTrue(governor.shapesBytes() > 20 * 2 * 8 * 100, "points not counted");
+        assertAccountingConsistent(governor);
+    }
+
+    @Test
+    void compressesBeforeEvicting() {
+        MemoryGovernor governor = governor(Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            save(governor);
+        }
+        // The raw history is just over budget, compressing it is enough
+        MemoryGovernor tight = governor(9 * SNAPSHOT_BYTES);
+        tight.enforce();
+        assertEquals(11, undoStack.size());
+        assertTrue(undoStack.get(1).isCompressed());
+        assertFalse(undoStack.peek().isCompressed(), "the shown state was compressed");
+        assertTrue(tight.totalBytes() <= tight.budget());
+        assertAccountingConsistent(tight);
+    }
+
+    @Test
+    void compressedSnapshotsRestoreEveryPixel() {
+        WritableImage image = noisyImage();
+        image.getPixelWriter().setColor(3, 4, Color.rgb(200, 100, 50, 0.5));
+        int[] expected = pixels(image);
+        CanvasSnapshot snapshot = new CanvasSnapshot(image);
+        assertTrue(snapshot.compress());
+        assertTrue(snapshot.isCompressed());
+        assertTrue(snapshot.estimatedBytes() < SNAPSHOT_BYTES);
+        assertArrayEquals(expected, pixels(snapshot.image()));
+        assertFalse(snapshot.isCompressed());
+    }
+
+    @Test
+    void evictsRedoFirstThenTheOldestUndo() {
+        MemoryGovernor governor = governor(Long.MAX_VALUE);
+        List<CanvasSnapshot> saved = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            save(governor);
+            saved.add(undoStack.peek());
+        }
+        for (int i = 0; i < 4; i++) {
+            redoStack.push(undoStack.pop());
+        }
+        CanvasSnapshot shown = undoStack.peek();
+        // Too small even for compressed snapshots, only the shown state fits above the blank base
+        MemoryGovernor tight = governor(SNAPSHOT_BYTES);
+        tight.enforce();
+        assertTrue(redoStack.isEmpty());
+        assertEquals(2, undoStack.size());
+        assertNull(undoStack.get(0).image(), "the blank base entry was evicted");
+        assertSame(shown, undoStack.peek());
+        assertSame(saved.get(5), shown);
+        assertAccountingConsistent(tight);
+    }
+
+    @Test
+    void evictionKeepsTheNewestUndoStates() {
+        MemoryGovernor governor = governor(Long.MAX_VALUE);
+        List<CanvasSnapshot> saved = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            save(governor);
+            saved.add(undoStack.peek());
+        }
+        MemoryGovernor tight = governor(SNAPSHOT_BYTES + 8 * 1024);
+        tight.enforce();
+        int kept = undoStack.size() - 1;
+        assertTrue(kept > 1 && kept < 30, kept + " undo states kept");
+        // What is left is the blank base and the newest states, in order
+        assertNull(undoStack.get(0).image(), "the blank base entry was evicted");
+        assertEquals(saved.subList(30 - kept, 30), new ArrayList<>(undoStack.subList(1, undoStack.size())));
+        assertAccountingConsistent(tight);
+    }
+
+    @Test
+    void simplifiesStrokesOnceTheHistoryIsGone() {
+        for (int i = 0; i < 50; i++) {
+            shapes.add(ShapeLodTest.stroke(1000));
+        }
+        MemoryGovernor unbounded = governor(Long.MAX_VALUE);
+        unbounded.measure();
+        MemoryGovernor governor = governor(unbounded.shapesBytes() / 2);
+        governor.enforce();
+        assertTrue(governor.totalBytes() <= governor.budget(), governor.totalBytes() + " bytes left");
+        assertTrue(shapesChanged > 0);
+        PaintBrush.Shape simplified = shapes.get(0);
+        assertTrue(simplified.freehandXPoints.length < 1000);
+        assertEquals(10, simplified.freehandXPoints[0]);
+        assertEquals(10 + 999 * 2.1, simplified.freehandXPoints[simplified.freehandXPoints.length - 1], 1e-9);
+        assertNull(simplified.lodXPoints, "simplification built every level of detail");
+        assertAccountingConsistent(governor);
+    }
+
+    /**
+     * Three hours of drawing with a stroke every five seconds, an undo now and then and a 4 MB budget.
+     */
+    @Test
+    void multiHourSessionStaysWithinBudget() {
+        long budget = 4 * 1024 * 1024;
+        MemoryGovernor governor = governor(budget);
+        int strokes = 3 * 60 * 60 / 5;
+        for (int i = 0; i < strokes; i++) {
+            shapes.add(ShapeLodTest.stroke(150 + random.nextInt(300)));
+            save(governor);
+            if (i % 25 == 24 && undoStack.size() > 2) {
+                redoStack.push(undoStack.pop());
+                redoStack.push(undoStack.pop());
+                undoStack.push(redoStack.pop());
+            }
+            assertTrue(governor.totalBytes() <= budget, "over budget after stroke " + i);
+        }
+        assertEquals(strokes, shapes.size());
+        assertFalse(undoStack.isEmpty());
+        assertFalse(undoStack.peek().isCompressed(), "the shown state was compressed");
+        assertTrue(shapesChanged > 0, "strokes never simplified");
+        assertAccountingConsistent(governor);
+    }
+
+    private MemoryGovernor governor(long budget) {
+        return new MemoryGovernor(shapes, undoStack, redoStack, () -> shapesChanged++, budget);
+    }
+
+    /**
+     * Does what {@link PaintBrush} does after every operation, with a small noisy raster standing in for the canvas.
+     */
+    private void save(MemoryGovernor governor) {
+        redoStack.clear();
+        undoStack.push(new CanvasSnapshot(noisyImage()));
+        governor.enforce();
+    }
+
+    private WritableImage noisyImage() {
+        WritableImage image = new WritableImage(SNAPSHOT_WIDTH, SNAPSHOT_HEIGHT);
+        PixelWriter pixels = image.getPixelWriter();
+        for (int y = 0; y < SNAPSHOT_HEIGHT; y++) {
+            for (int x = 0; x < SNAPSHOT_WIDTH; x++) {
+                pixels.setColor(x, y, random.nextInt(8) == 0 ? Color.gray(random.nextDouble()) : Color.WHITE);
+            }
+        }
+        return image;
+    }
+
+    private static int[] pixels(WritableImage image) {
+        int[] argb = new int[SNAPSHOT_WIDTH * SNAPSHOT_HEIGHT];
+        image.getPixelReader().getPixels(0, 0, SNAPSHOT_WIDTH, SNAPSHOT_HEIGHT, PixelFormat.getIntArgbInstance(),
+                argb, 0, SNAPSHOT_WIDTH);
+        return argb;
+    }
+
+    private static void assertAccountingConsistent(MemoryGovernor governor) {
+        long shapesBytes = governor.shapesBytes();
+        long historyBytes = governor.historyBytes();
+        governor.measure();
+        assertEquals(shapesBytes, governor.shapesBytes(), "shape bytes drifted");
+        assertEquals(historyBytes, governor.historyBytes(), "history bytes drifted");
+    }
+}
@@ -0,0 +1,94 @@
+package org.example.paintbrushfx;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShapeLodTest {
+
+    /**
+     * A wavy stroke with points a little over 2 px apart, like the ones the drag handler records.
+     */
+    static PaintBrush.Shape stroke(int count) {
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = 10 + i * 2.1;
+            ys[i] = 300 + 40 * Math.sin(i / 25.0);
+        }
+        return new PaintBrush.Shape("FreeHand", xs[0], ys[0], 0, 0, false, Color.BLACK,
+                null, null, 0, 0, 0, 0, xs, ys, 2);
+    }
+
+    @Test
+    void fullScaleUsesEveryPoint() {
+        PaintBrush.Shape shape = stroke(1000);
+        assertEquals(0, shape.lodLevel(1));
+        assertEquals(0, shape.lodLevel(2));
+        assertSame(shape.freehandXPoints, shape.lodXPoints(0));
+    }
+
+    @Test
+    void levelFollowsScale() {
+        PaintBrush.Shape shape = stroke(10);
+        assertEquals(1, shape.lodLevel(0.5));
+        assertEquals(3, shape.lodLevel(0.125));
+        assertEquals(5, shape.lodLevel(1 / 32.0));
+        assertEquals(6, shape.lodLevel(0.001));
+    }
+
+    @Test
+    void vertexCountDropsPerLevel() {
+        PaintBrush.Shape shape = stroke(1000);
+        int previous = shape.lodXPoints(0).length;
+        for (int level = 1; level <= 6; level++) {
+            int count = shape.lodXPoints(level).length;
+            assertEquals(count, shape.lodYPoints(level).length);
+            assertTrue(count <= previous, "level " + level + " has more points than the level above");
+            previous = count;
+        }
+        // Points 2.1 px apart are all kept at 2 px spacing, the coarser levels halve roughly each time
+        assertEquals(1000, shape.lodXPoints(1).length);
+        assertTrue(shape.lodXPoints(3).length <= 1000 / 3);
+    }
+
+    @Test
+    void lowZoomSubmitsAnOrderOfMagnitudeFewerVertices() {
+        PaintBrush.Shape shape = stroke(1000);
+        int level = shape.lodLevel(1 / 32.0);
+        assertTrue(shape.lodXPoints(level).length * 10 <= shape.freehandXPoints.length,
+                "only " + shape.lodXPoints(level).length + " of 1000 points dropped");
+    }
+
+    @Test
+    void levelsKeepTheStrokeEnds() {
+        PaintBrush.Shape shape = stroke(1000);
+        for (int level = 0; level <= 6; level++) {
+            double[] xs = shape.lodXPoints(level);
+            double[] ys = shape.lodYPoints(level);
+            assertArrayEquals(new double[] {shape.freehandXPoints[0], shape.freehandYPoints[0]},
+                    new double[] {xs[0], ys[0]});
+            assertArrayEquals(new double[] {shape.freehandXPoints[999], shape.freehandYPoints[999]},
+                    new double[] {xs[xs.length - 1], ys[ys.length - 1]});
+        }
+    }
+
+    @Test
+    void simplifyDecimatesOnlyTheRequestedLevel() {
+        PaintBrush.Shape shape = stroke(1000);
+        // Recorded points are over 2 px apart, so the 2 px level has nothing to drop
+        assertFalse(shape.simplify(1));
+        assertEquals(1000, shape.freehandXPoints.length);
+        assertTrue(shape.simplify(2));
+        assertEquals(500, shape.freehandXPoints.length, 1);
+        assertEquals(shape.freehandXPoints.length, shape.freehandYPoints.length);
+        assertNull(shape.lodXPoints, "simplify built every level of detail");
+        assertFalse(shape.simplify(2), "simplified twice to the same level");
+    }
+}
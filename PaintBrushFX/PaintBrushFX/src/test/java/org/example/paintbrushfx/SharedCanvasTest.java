@@ -0,0 +1,317 @@
+package org.example.paintbrushfx;
+
+import javafx.application.Platform;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharedCanvasTest {
+    private static final String LOOPBACK = InetAddress.getLoopbackAddress().getHostAddress();
+
+    private final List<SharedCanvas> opened = new ArrayList<>();
+
+    /**
+     * Keeps the shapes like {@link PaintBrush} does; only touched on the FX thread.
+     */
+    static class Peer implements SharedCanvas.Listener {
+        final List<PaintBrush.Shape> shapes = new ArrayList<>();
+
+        @Override
+        public List<PaintBrush.Shape> shapes() {
+            return shapes;
+        }
+
+        @Override
+        public void shapeAdded(PaintBrush.Shape shape) {
+            shapes.add(shape);
+        }
+
+        @Override
+        public void shapeFilled(long id, Color color) {
+            for (PaintBrush.Shape shape : shapes) {
+                if (shape.id == id) {
+                    shape.filled = true;
+                    shape.color = color;
+                }
+            }
+        }
+
+        @Override
+        public void cleared() {
+            shapes.clear();
+        }
+
+        @Override
+        public void batchApplied() {
+        }
+    }
+
+    @AfterEach
+    void closeAll() throws IOException {
+        for (SharedCanvas shared : opened) {
+            shared.close();
+        }
+    }
+
+    @Test
+    void freehandStrokeRoundTrips() throws IOException {
+        // Back and forth so that the deltas change sign, with fractions on the 1/16 px grid
+        double[] xs = {100, 101.5, 99.25, 99.25, 250.0625, 3, 0};
+        double[] ys = {50, 48.75, 52, 20.5, 20.5, 599.9375, 0};
+        PaintBrush.Shape stroke = new PaintBrush.Shape("FreeHand", xs[0], ys[0], 0, 0, false, Color.ORANGERED,
+                null, null, 0, 0, 0, 0, xs, ys, 6);
+        PaintBrush.Shape decoded = roundTrip(stroke);
+        assertEquals(stroke.id, decoded.id);
+        assertEquals("FreeHand", decoded.type);
+        assertEquals(Color.ORANGERED, decoded.color);
+        assertEquals(6, decoded.lineWidth);
+        assertArrayEquals(xs, decoded.freehandXPoints);
+        assertArrayEquals(ys, decoded.freehandYPoints);
+    }
+
+    @Test
+    void freehandPointsAreRoundedToASixteenthOfAPixel() throws IOException {
+        double[] xs = {10.01, 10.04, 9.97};
+        double[] ys = {-0.03, 0.5, 1.0 / 3};
+        PaintBrush.Shape decoded = roundTrip(new PaintBrush.Shape("Eraser", 0, 0, 0, 0, false, Color.WHITE,
+                null, null, 0, 0, 0, 0, xs, ys, 4));
+        for (int i = 0; i < xs.length; i++) {
+            assertEquals(xs[i], decoded.freehandXPoints[i], 1 / 32.0);
+            assertEquals(ys[i], decoded.freehandYPoints[i], 1 / 32.0);
+        }
+    }
+
+    @Test
+    void shapesRoundTrip() throws IOException {
+        PaintBrush.Shape line = new PaintBrush.Shape("Line", 0, 0, 0, 0, false, Color.BLUE,
+                null, null, 10, 20, 300.5, 400.25, null, null, 2);
+        PaintBrush.Shape decodedLine = roundTrip(line);
+        assertArrayEquals(new double[] {10, 20, 300.5, 400.25}, new double[] {decodedLine.lineStartX,
+                decodedLine.lineStartY, decodedLine.lineEndX, decodedLine.lineEndY});
+
+        PaintBrush.Shape triangle = new PaintBrush.Shape("Triangle", 5, 6, 70, 80, true, Color.GREEN,
+                new double[] {5, 40, 75}, new double[] {86, 6, 86}, 0, 0, 0, 0, null, null, 3);
+        PaintBrush.Shape decodedTriangle = roundTrip(triangle);
+        assertTrue(decodedTriangle.filled);
+        assertArrayEquals(triangle.xPoints, decodedTriangle.xPoints);
+        assertArrayEquals(triangle.yPoints, decodedTriangle.yPoints);
+
+        PaintBrush.Shape oval = new PaintBrush.Shape("Oval", 1.5, 2.5, 30, 40, false, Color.PURPLE,
+                null, null, 0, 0, 0, 0, null, null, 2);
+        PaintBrush.Shape decodedOval = roundTrip(oval);
+        assertArrayEquals(new double[] {1.5, 2.5, 30, 40},
+                new double[] {decodedOval.x, decodedOval.y, decodedOval.width, decodedOval.height});
+    }
+
+    @Test
+    void hostBootstrapsAndRelaysBetweenClients() throws Exception {
+        FxToolkit.start();
+        Peer hostCanvas = new Peer();
+        PaintBrush.Shape existing = ShapeLodTest.stroke(200);
+        FxToolkit.run(() -> hostCanvas.shapes.add(existing));
+        SharedCanvas host = open(() -> SharedCanvas.host(hostCanvas, 0));
+
+        Peer first = new Peer();
+        SharedCanvas firstClient = open(() -> SharedCanvas.join(first, LOOPBACK, host.port()));
+        awaitShapes(first, 1);
+        FxToolkit.run(() -> {
+            assertEquals(existing.id, first.shapes.get(0).id);
+            assertArrayEquals(existing.freehandXPoints, first.shapes.get(0).freehandXPoints, 1 / 32.0);
+        });
+
+        Peer second = new Peer();
+        open(() -> SharedCanvas.join(second, LOOPBACK, host.port()));
+        awaitShapes(second, 1);
+
+        PaintBrush.Shape oval = new PaintBrush.Shape("Oval", 100, 100, 50, 30, false, Color.RED,
+                null, null, 0, 0, 0, 0, null, null, 2);
+        FxToolkit.run(() -> {
+            first.shapes.add(oval);
+            firstClient.publishShape(oval);
+            firstClient.publishFill(oval);
+        });
+        awaitShapes(hostCanvas, 2);
+        awaitShapes(second, 2);
+        FxToolkit.run(() -> {
+            assertEquals(oval.id, second.shapes.get(1).id);
+            assertEquals("Oval", second.shapes.get(1).type);
+        });
+        await(() -> second.shapes.get(1).filled);
+        FxToolkit.run(() -> assertEquals(Color.RED, second.shapes.get(1).color));
+
+        FxToolkit.run(host::publishClear);
+        awaitShapes(first, 0);
+        awaitShapes(second, 0);
+    }
+
+    @Test
+    void hostDropsAConnectionSendingAnInvalidLength() throws Exception {
+        FxToolkit.start();
+        Peer hostCanvas = new Peer();
+        SharedCanvas host = open(() -> SharedCanvas.host(hostCanvas, 0));
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), host.port())) {
+            // A five byte varint that decodes to -1
+            socket.getOutputStream().write(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+            socket.getOutputStream().flush();
+            socket.setSoTimeout(5000);
+            InputStream in = socket.getInputStream();
+            assertEquals(-1, in.read(), "the host should close the connection");
+        }
+
+        // The host keeps serving the others
+        Peer client = new Peer();
+        SharedCanvas joined = open(() -> SharedCanvas.join(client, LOOPBACK, host.port()));
+        PaintBrush.Shape stroke = ShapeLodTest.stroke(20);
+        FxToolkit.run(() -> joined.publishShape(stroke));
+        awaitShapes(hostCanvas, 1);
+    }
+
+    @Test
+    void concurrentClientsConverge() throws Exception {
+        FxToolkit.start();
+        int clients = 24;
+        int shapesEach = 25;
+        Peer hostCanvas = new Peer();
+        SharedCanvas host = open(() -> SharedCanvas.host(hostCanvas, 0));
+        List<Peer> peers = new ArrayList<>(List.of(hostCanvas));
+        List<Thread> publishers = new ArrayList<>();
+        CountDownLatch go = new CountDownLatch(1);
+        for (int c = 0; c < clients; c++) {
+            Peer peer = new Peer();
+            SharedCanvas client = open(() -> SharedCanvas.join(peer, LOOPBACK, host.port()));
+            peers.add(peer);
+            // Every client draws from a thread of its own, all at once
+            Thread publisher = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < shapesEach; i++) {
+                    PaintBrush.Shape stroke = ShapeLodTest.stroke(50 + i);
+                    client.publishShape(stroke);
+                    Platform.runLater(() -> peer.shapes.add(stroke));
+                }
+            });
+            publishers.add(publisher);
+            publisher.start();
+        }
+        go.countDown();
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        await(() -> {
+            Set<Long> hostIds = ids(hostCanvas);
+            if (hostIds.size() != clients * shapesEach) {
+                return false;
+            }
+            for (Peer peer : peers) {
+                if (!ids(peer).equals(hostIds)) {
+                    return false;
+                }
+            }
+            return true;
+        }, deadline);
+    }
+
+    @Test
+    void hostDropsAClientThatStopsReading() throws Exception {
+        FxToolkit.start();
+        Peer hostCanvas = new Peer();
+        FxToolkit.run(() -> hostCanvas.shapes.add(ShapeLodTest.stroke(10)));
+        SharedCanvas host = open(() -> SharedCanvas.host(hostCanvas, 0));
+        PaintBrush.Shape big = ShapeLodTest.stroke(200_000);
+        int messageBytes = host.encodeShape(big).length;
+        int messages = 100 * 1024 * 1024 / messageBytes; // Well past what the host queues for a connection
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), host.port())) {
+            socket.setSoTimeout(10_000);
+            InputStream in = socket.getInputStream();
+            assertTrue(in.read() > 0, "no bootstrap"); // The connection is in the relay list from here on
+            FxToolkit.run(() -> {
+                for (int i = 0; i < messages; i++) {
+                    host.publishShape(big);
+                }
+            });
+            long received = 0;
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                for (int n; (n = in.read(buffer)) >= 0; ) {
+                    received += n;
+                }
+            } catch (SocketException e) {
+                // Reset, the host discarded what it had not sent yet
+            }
+            assertTrue(received < (long) messages * messageBytes, "the host kept queueing for a stalled client");
+        }
+
+        // The host keeps serving the others
+        Peer client = new Peer();
+        open(() -> SharedCanvas.join(client, LOOPBACK, host.port()));
+        awaitShapes(client, 1);
+        FxToolkit.run(() -> assertFalse(hostCanvas.shapes.isEmpty()));
+    }
+
+    private static PaintBrush.Shape roundTrip(PaintBrush.Shape shape) throws IOException {
+        SharedCanvas shared = SharedCanvas.host(new Peer(), 0);
+        try {
+            byte[] bytes = shared.encodeShape(shape);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            assertEquals(1, in.readByte()); // The shape operation
+            PaintBrush.Shape decoded = shared.decodeShape(in);
+            assertEquals(0, in.available());
+            return decoded;
+        } finally {
+            shared.close();
+        }
+    }
+
+    private SharedCanvas open(Callable<SharedCanvas> factory) throws Exception {
+        SharedCanvas shared = factory.call();
+        opened.add(shared);
+        return shared;
+    }
+
+    private static void awaitShapes(Peer canvas, int count) throws Exception {
+        await(() -> canvas.shapes.size() == count);
+    }
+
+    private static Set<Long> ids(Peer canvas) {
+        Set<Long> ids = new HashSet<>();
+        for (PaintBrush.Shape shape : canvas.shapes) {
+            ids.add(shape.id);
+        }
+        return ids;
+    }
+
+    private static void await(Callable<Boolean> condition) throws Exception {
+        await(condition, System.nanoTime() + 5_000_000_000L);
+    }
+
+    private static void await(Callable<Boolean> condition, long deadline) throws Exception {
+        while (!FxToolkit.call(condition)) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+#!/usr/bin/env python3
+"""Generates the synthetic input sessions InputSessionTest replays.
+
+The sessions are not recordings of a real user: the strokes are sine waves, circles and spirals sampled at a
+120 Hz pointer rate, in the format PaintBrush writes with -Dpaintbrush.record (see InputSession). Run it from
+this directory after changing the format or the scripts below.
+"""
+import math
+
+FRAME = 8_333_333  # 120 Hz pointer
+PAUSE = 200_000_000
+
+
+def session(name, script):
+    t = 0
+    lines = []
+
+    def ev(kind, x, y, detail, ctrl=False):
+        lines.append(f"{t} {kind} {round(x, 1)} {round(y, 1)} {detail} {'true' if ctrl else 'false'}")
+
+    for step in script:
+        if step[0] == 'stroke':
+            pts = list(step[1])
+            ev('MOUSE_PRESSED', *pts[0], 'PRIMARY')
+            for p in pts[1:]:
+                t += FRAME
+                ev('MOUSE_DRAGGED', *p, 'PRIMARY')
+            t += FRAME
+            ev('MOUSE_RELEASED', *pts[-1], 'PRIMARY')
+        elif step[0] == 'click':
+            ev('MOUSE_PRESSED', float(step[1]), float(step[2]), 'PRIMARY')
+            t += FRAME
+            ev('MOUSE_RELEASED', float(step[1]), float(step[2]), 'PRIMARY')
+        elif step[0] == 'key':
+            ev('KEY_PRESSED', 0.0, 0.0, step[1], True)
+        elif step[0] == 'pause':
+            t += step[1]
+        else:
+            # Tool state changes and the Undo, Redo and Clear buttons: TOOL, COLOR, WIDTH, FILLED, UNDO, REDO, CLEAR
+            ev(step[0], 0.0, 0.0, step[1] if len(step) > 1 else '-')
+    with open(f"{name}.session", "w") as out:
+        out.write("\n".join(lines) + "\n")
+    print(name, len(lines), t / 1e9)
+
+
+def wave(x0, y0, length, n, amp, period):
+    return [(x0 + length * i / n, y0 + amp * math.sin(i / period)) for i in range(n + 1)]
+
+
+def circle(cx, cy, r, n, turns=1.0):
+    return [(cx + r * math.cos(2 * math.pi * turns * i / n), cy + r * math.sin(2 * math.pi * turns * i / n))
+            for i in range(n + 1)]
+
+
+def spiral(cx, cy, r0, r1, n, turns):
+    return [(cx + (r0 + (r1 - r0) * i / n) * math.cos(2 * math.pi * turns * i / n),
+             cy + (r0 + (r1 - r0) * i / n) * math.sin(2 * math.pi * turns * i / n)) for i in range(n + 1)]
+
+
+def drag(x0, y0, x1, y1, n):
+    return [(x0 + (x1 - x0) * i / n, y0 + (y1 - y0) * i / n) for i in range(n + 1)]
+
+
+P = PAUSE
+
+session("scribbles", [
+    ('stroke', wave(60, 120, 760, 120, 40, 9)), ('pause', P),
+    ('stroke', wave(60, 260, 760, 120, 60, 14)), ('pause', P),
+    ('stroke', circle(250, 430, 110, 100)), ('pause', P),
+    ('stroke', circle(620, 430, 90, 100, 2)), ('pause', P),
+    ('stroke', wave(840, 60, -780, 140, 25, 5)), ('pause', P),
+    ('stroke', wave(60, 560, 760, 120, 15, 3)),
+])
+session("undo-redo", [
+    ('stroke', wave(80, 150, 700, 90, 50, 10)), ('pause', P),
+    ('stroke', circle(300, 380, 120, 90)), ('pause', P),
+    ('key', 'Z'), ('pause', P), ('key', 'Z'), ('pause', P), ('key', 'Y'), ('pause', P),
+    ('stroke', wave(80, 480, 700, 90, 30, 6)), ('pause', P),
+    ('stroke', circle(620, 300, 100, 90)), ('pause', P),
+    ('key', 'Z'), ('pause', P), ('key', 'Y'), ('pause', P),
+    ('stroke', wave(820, 540, -700, 90, 20, 4)),
+])
+session("long-stroke", [
+    ('stroke', spiral(450, 300, 20, 270, 480, 6)), ('pause', P),
+    ('stroke', wave(40, 40, 820, 240, 20, 7)),
+])
+session("toolbar", [
+    ('COLOR', '0x1e90ffff'), ('WIDTH', '4.0'), ('TOOL', 'Line'), ('pause', P),
+    ('stroke', drag(60, 80, 400, 220, 60)), ('pause', P),
+    ('TOOL', 'Rectangle'), ('pause', P),
+    ('stroke', drag(480, 60, 780, 240, 60)), ('pause', P),
+    ('COLOR', '0xdc143cff'), ('FILLED', 'true'), ('TOOL', 'Oval'), ('pause', P),
+    ('stroke', drag(80, 300, 360, 520, 60)), ('pause', P),
+    ('FILLED', 'false'), ('TOOL', 'Triangle'), ('pause', P),
+    ('stroke', drag(460, 320, 760, 540, 60)), ('pause', P),
+    ('COLOR', '0xffd700ff'), ('TOOL', 'FillShape'), ('pause', P),
+    ('click', 620, 460), ('pause', P), ('click', 620, 140), ('pause', P),
+    ('WIDTH', '12.0'), ('TOOL', 'Eraser'), ('pause', P),
+    ('stroke', wave(60, 420, 760, 120, 50, 8)), ('pause', P),
+    ('UNDO',), ('pause', P), ('REDO',), ('pause', P),
+    ('WIDTH', '2.0'), ('TOOL', 'FreeHand'), ('pause', P),
+    ('stroke', circle(450, 300, 140, 100)), ('pause', P),
+    ('CLEAR',), ('pause', P),
+    ('TOOL', 'Rectangle'), ('pause', P),
+    ('stroke', drag(300, 200, 600, 400, 60)), ('pause', P),
+    ('key', 'Z'),
+])